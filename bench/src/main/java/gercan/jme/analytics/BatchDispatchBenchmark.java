@@ -0,0 +1,82 @@
+/*************************************************************************
+* Copyright 2010 Gorkem Ercan
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*
+**************************************************************************/
+package gercan.jme.analytics;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Measures dispatching {@link #HITS} stored hits to the in-process
+ * {@link StubServer} with a GET per hit and with POST batches. Scores are
+ * per hit.
+ *
+ * @author Gorkem Ercan
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class BatchDispatchBenchmark {
+	static final int HITS = 20;
+
+	/*
+	 * hits per batch, 0 sends a GET per hit
+	 */
+	@Param({ "0", "5", "20" })
+	public int batchSize;
+
+	private StubServer server;
+	private GoogleAnalytics ga;
+	private Hit pageView;
+
+	@Setup
+	public void setUp() throws IOException {
+		server = new StubServer();
+		server.start();
+		ga = BenchTracker.create();
+		ga.dispatchAll(60000L);
+		if (batchSize > 0) {
+			ga.setBatchDispatch(server.getBaseUrl() + "/batch", batchSize);
+		}
+		pageView = Hit.pageView("/home/menu/settings");
+	}
+
+	@TearDown
+	public void tearDown() {
+		server.stop();
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(HITS)
+	public int dispatch() {
+		for (int i = 0; i < HITS; i++) {
+			ga.storeHit(pageView);
+		}
+		return ga.dispatch(HITS).getSent();
+	}
+}
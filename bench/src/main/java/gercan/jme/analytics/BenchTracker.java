@@ -0,0 +1,44 @@
+/*************************************************************************
+* Copyright 2010 Gorkem Ercan
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*
+**************************************************************************/
+package gercan.jme.analytics;
+
+/**
+ * Creates the tracker used by the benchmarks. The tracker is a singleton,
+ * all benchmarks of a fork share it.
+ *
+ * @author Gorkem Ercan
+ *
+ */
+final class BenchTracker {
+	/*
+	 * stored hits kept by the benchmarks, older ones are evicted
+	 */
+	static final int STORE_LIMIT = 1000;
+
+	private BenchTracker() {
+	}
+
+	static GoogleAnalytics create() {
+		GoogleAnalytics ga = GoogleAnalytics.getInstance("MO-0000000-1",
+				new BenchMIDlet());
+		ga.setImmediate(false);
+		ga.setEvictionPolicy(GoogleAnalytics.EVICT_DROP_OLDEST);
+		ga.setStorageQuota(STORE_LIMIT, 0);
+		ga.setAutoDispatch(0, 0);
+		return ga;
+	}
+}
@@ -0,0 +1,96 @@
+/*************************************************************************
+* Copyright 2010 Gorkem Ercan
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*
+**************************************************************************/
+package gercan.jme.analytics;
+
+import gercan.jme.analytics.se.FileHitStore;
+import gercan.jme.analytics.se.HttpClientHitTransport;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Measures a stored hit going out through {@link GoogleAnalytics#readAndDispatch()}
+ * to the in-process {@link StubServer}. Each operation stores one hit and
+ * dispatches one, so the store does not run dry. Runs with the default MIDP
+ * transport and record store and with the Java SE ones.
+ *
+ * @author Gorkem Ercan
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class DispatchBenchmark {
+
+	@Param({ "midp", "httpclient" })
+	public String transport;
+
+	@Param({ "rms", "file" })
+	public String store;
+
+	private StubServer server;
+	private File dir;
+	private GoogleAnalytics ga;
+	private Hit pageView;
+
+	@Setup
+	public void setUp() throws IOException {
+		server = new StubServer();
+		server.start();
+		ga = BenchTracker.create();
+		if ("httpclient".equals(transport)) {
+			ga.setTransport(new HttpClientHitTransport(server.getBaseUrl()));
+		}
+		if ("file".equals(store)) {
+			dir = Files.createTempDirectory("ga-bench").toFile();
+			ga.setHitStores(new FileHitStore(new File(dir, "hits")),
+					new FileHitStore(new File(dir, "dead")));
+		}
+		ga.dispatchAll(60000L);
+		pageView = Hit.pageView("/home/menu/settings");
+	}
+
+	@TearDown
+	public void tearDown() {
+		server.stop();
+		if (dir != null) {
+			File[] files = dir.listFiles();
+			for (int i = 0; i < files.length; i++) {
+				files[i].delete();
+			}
+			dir.delete();
+		}
+	}
+
+	@Benchmark
+	public boolean readAndDispatch() {
+		ga.storeHit(pageView);
+		return ga.readAndDispatch();
+	}
+}
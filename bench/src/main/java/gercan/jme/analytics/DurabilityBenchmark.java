@@ -0,0 +1,88 @@
+/*************************************************************************
+* Copyright 2010 Gorkem Ercan
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*
+**************************************************************************/
+package gercan.jme.analytics;
+
+import gercan.jme.analytics.se.FileHitStore;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Measures the deferred mode tracking call when each hit is written and
+ * synced before the call returns and when the hits are written as groups
+ * by {@link GoogleAnalytics#DURABILITY_GROUP_COMMIT}. The file store syncs
+ * to the disk, which is closer to the cost of a flash write on a device.
+ *
+ * @author Gorkem Ercan
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class DurabilityBenchmark {
+
+	@Param({ "every", "group" })
+	public String durability;
+
+	@Param({ "rms", "file" })
+	public String store;
+
+	private File dir;
+	private GoogleAnalytics ga;
+
+	@Setup
+	public void setUp() throws IOException {
+		ga = BenchTracker.create();
+		if ("file".equals(store)) {
+			dir = Files.createTempDirectory("ga-bench").toFile();
+			ga.setHitStores(new FileHitStore(new File(dir, "hits")),
+					new FileHitStore(new File(dir, "dead")));
+		}
+		if ("group".equals(durability)) {
+			ga.setDurability(GoogleAnalytics.DURABILITY_GROUP_COMMIT, 32, 1000L);
+		}
+	}
+
+	@TearDown
+	public void tearDown() {
+		ga.setDurability(GoogleAnalytics.DURABILITY_EVERY_HIT, 0, 0);
+		if (dir != null) {
+			File[] files = dir.listFiles();
+			for (int i = 0; i < files.length; i++) {
+				files[i].delete();
+			}
+			dir.delete();
+		}
+	}
+
+	@Benchmark
+	public void trackPageView() {
+		ga.trackPageView("/home/menu/settings");
+	}
+}
@@ -0,0 +1,74 @@
+/*************************************************************************
+* Copyright 2010 Gorkem Ercan
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*
+**************************************************************************/
+package gercan.jme.analytics;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Measures url encoding of page paths and event strings, uncached and
+ * through the {@link EncodedCache}.
+ *
+ * @author Gorkem Ercan
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class EncodeBenchmark {
+
+	@Param({ "/home/menu/settings", "/search?q=mobile analytics&page=2",
+			"/kategori/\u00e7ocuk/\u00f6\u011fretmen" })
+	public String input;
+
+	private StringBuffer buffer;
+	private EncodedCache cache;
+
+	@Setup
+	public void setUp() {
+		buffer = new StringBuffer(128);
+		cache = new EncodedCache(32);
+		cache.encode(input, buffer);
+	}
+
+	@Benchmark
+	public int encode() {
+		buffer.setLength(0);
+		UrlEncoder.encode(input, buffer);
+		return buffer.length();
+	}
+
+	@Benchmark
+	public String encodeToString() {
+		return UrlEncoder.encode(input);
+	}
+
+	@Benchmark
+	public int encodeCached() {
+		buffer.setLength(0);
+		cache.encode(input, buffer);
+		return buffer.length();
+	}
+}
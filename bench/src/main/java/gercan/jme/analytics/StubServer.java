@@ -0,0 +1,90 @@
+/*************************************************************************
+* Copyright 2010 Gorkem Ercan
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*
+**************************************************************************/
+package gercan.jme.analytics;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * In-process HTTP server that answers every request like the tracking gif
+ * endpoint. Starting it points the shimmed connector at it through the
+ * <code>bench.http.base</code> system property.
+ *
+ * @author Gorkem Ercan
+ *
+ */
+final class StubServer implements HttpHandler {
+	/*
+	 * the 1x1 transparent gif returned by __utm.gif
+	 */
+	private static final byte[] GIF = { 'G', 'I', 'F', '8', '9', 'a', 1, 0, 1,
+			0, (byte) 0x80, 0, 0, 0, 0, 0, (byte) 0xff, (byte) 0xff,
+			(byte) 0xff, '!', (byte) 0xf9, 4, 1, 0, 0, 0, 0, ',', 0, 0, 0, 0,
+			1, 0, 1, 0, 0, 2, 2, 'D', 1, 0, ';' };
+
+	private final HttpServer server;
+	private final AtomicInteger requests = new AtomicInteger();
+	private final byte[] buffer = new byte[4096];
+
+	StubServer() throws IOException {
+		// small responses otherwise wait for the delayed ack of the client
+		System.setProperty("sun.net.httpserver.nodelay", "true");
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.createContext("/", this);
+		server.setExecutor(Executors.newSingleThreadExecutor());
+	}
+
+	void start() {
+		server.start();
+		System.setProperty("bench.http.base", getBaseUrl());
+	}
+
+	String getBaseUrl() {
+		return "http://127.0.0.1:" + server.getAddress().getPort();
+	}
+
+	void stop() {
+		System.clearProperty("bench.http.base");
+		server.stop(0);
+	}
+
+	int getRequests() {
+		return requests.get();
+	}
+
+	public void handle(HttpExchange exchange) throws IOException {
+		requests.incrementAndGet();
+		InputStream in = exchange.getRequestBody();
+		while (in.read(buffer) > 0) {
+			// discard
+		}
+		in.close();
+		exchange.getResponseHeaders().set("Content-Type", "image/gif");
+		exchange.sendResponseHeaders(200, GIF.length);
+		OutputStream out = exchange.getResponseBody();
+		out.write(GIF);
+		out.close();
+	}
+}
@@ -0,0 +1,82 @@
+/*************************************************************************
+* Copyright 2010 Gorkem Ercan
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*
+**************************************************************************/
+package gercan.jme.analytics;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Measures the tracking calls that do not touch the network: building the
+ * root path, constructing and serializing hits and storing them into the
+ * {@link HitJournal}. The store is capped at
+ * {@link BenchTracker#STORE_LIMIT} hits so the store benchmarks include the
+ * eviction of the oldest hit.
+ *
+ * @author Gorkem Ercan
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class TrackerBenchmark {
+
+	private GoogleAnalytics ga;
+	private Hit pageView;
+
+	@Setup
+	public void setUp() {
+		ga = BenchTracker.create();
+		pageView = Hit.pageView("/home/menu/settings");
+	}
+
+	@Benchmark
+	public String rootPath() {
+		return ga.getRootPath();
+	}
+
+	@Benchmark
+	public byte[] pageViewHit() {
+		return Hit.pageView("/home/menu/settings").toBytes();
+	}
+
+	@Benchmark
+	public byte[] eventHit() {
+		return Hit.event("video", "play", "intro", 42).toBytes();
+	}
+
+	@Benchmark
+	public void storeHit() {
+		ga.storeHit(pageView);
+	}
+
+	@Benchmark
+	public void trackPageView() {
+		ga.trackPageView("/home/menu/settings");
+	}
+
+	@Benchmark
+	public void trackEvent() {
+		ga.trackEvent("video", "play", "intro", 42);
+	}
+}
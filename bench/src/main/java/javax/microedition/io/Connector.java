@@ -0,0 +1,63 @@
+/*************************************************************************
+* Copyright 2010 Gorkem Ercan
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*
+**************************************************************************/
+package javax.microedition.io;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+/**
+ * Desktop shim of the MIDP connector that opens http urls with
+ * {@link HttpURLConnection}. When the <code>bench.http.base</code> system
+ * property is set, for example to <code>http://127.0.0.1:8080</code>, the
+ * scheme, host and port of every url are replaced with it so that the
+ * requests go to a local stub server.
+ *
+ * @author Gorkem Ercan
+ *
+ */
+public class Connector {
+	public static final int READ = 1;
+	public static final int WRITE = 2;
+	public static final int READ_WRITE = 3;
+
+	private Connector() {
+	}
+
+	public static Connection open(String name) throws IOException {
+		return open(name, READ_WRITE, false);
+	}
+
+	public static Connection open(String name, int mode) throws IOException {
+		return open(name, mode, false);
+	}
+
+	public static Connection open(String name, int mode, boolean timeouts)
+			throws IOException {
+		if (!name.startsWith("http://") && !name.startsWith("https://")) {
+			throw new ConnectionNotFoundException("Unsupported url " + name);
+		}
+		String base = System.getProperty("bench.http.base");
+		if (base != null) {
+			int path = name.indexOf('/', name.indexOf("//") + 2);
+			name = base + (path < 0 ? "/" : name.substring(path));
+		}
+		HttpURLConnection c = (HttpURLConnection) new URL(name)
+				.openConnection();
+		return new UrlHttpConnection(c);
+	}
+}
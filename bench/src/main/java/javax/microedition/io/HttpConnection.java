@@ -0,0 +1,44 @@
+/*************************************************************************
+* Copyright 2010 Gorkem Ercan
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*
+**************************************************************************/
+package javax.microedition.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Desktop shim of the MIDP HTTP connection, only the members used by the
+ * tracker.
+ *
+ * @author Gorkem Ercan
+ *
+ */
+public interface HttpConnection extends Connection {
+	String GET = "GET";
+	String POST = "POST";
+	int HTTP_OK = 200;
+
+	void setRequestMethod(String method) throws IOException;
+
+	void setRequestProperty(String key, String value) throws IOException;
+
+	int getResponseCode() throws IOException;
+
+	InputStream openInputStream() throws IOException;
+
+	OutputStream openOutputStream() throws IOException;
+}
@@ -0,0 +1,62 @@
+/*************************************************************************
+* Copyright 2010 Gorkem Ercan
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*
+**************************************************************************/
+package javax.microedition.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+
+/**
+ * Adapts {@link HttpURLConnection} to {@link HttpConnection}.
+ *
+ * @author Gorkem Ercan
+ *
+ */
+final class UrlHttpConnection implements HttpConnection {
+
+	private final HttpURLConnection connection;
+
+	UrlHttpConnection(HttpURLConnection connection) {
+		this.connection = connection;
+	}
+
+	public void setRequestMethod(String method) throws IOException {
+		connection.setRequestMethod(method);
+	}
+
+	public void setRequestProperty(String key, String value) {
+		connection.setRequestProperty(key, value);
+	}
+
+	public int getResponseCode() throws IOException {
+		return connection.getResponseCode();
+	}
+
+	public InputStream openInputStream() throws IOException {
+		return connection.getInputStream();
+	}
+
+	public OutputStream openOutputStream() throws IOException {
+		connection.setDoOutput(true);
+		return connection.getOutputStream();
+	}
+
+	public void close() {
+		// keep-alive is handled by HttpURLConnection once the body is read
+	}
+}
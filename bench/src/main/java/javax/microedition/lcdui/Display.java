@@ -0,0 +1,47 @@
+/*************************************************************************
+* Copyright 2010 Gorkem Ercan
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*
+**************************************************************************/
+package javax.microedition.lcdui;
+
+import javax.microedition.midlet.MIDlet;
+
+/**
+ * Desktop shim of the display of a 16 bit color screen.
+ *
+ * @author Gorkem Ercan
+ *
+ */
+public class Display {
+	private static final Display DISPLAY = new Display();
+
+	private Display() {
+	}
+
+	public static Display getDisplay(MIDlet midlet) {
+		if (midlet == null) {
+			throw new NullPointerException();
+		}
+		return DISPLAY;
+	}
+
+	public boolean isColor() {
+		return true;
+	}
+
+	public int numColors() {
+		return 1 << 16;
+	}
+}
@@ -0,0 +1,37 @@
+/*************************************************************************
+* Copyright 2010 Gorkem Ercan
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*
+**************************************************************************/
+package javax.microedition.lcdui;
+
+/**
+ * Desktop shim of the displayable with a fixed 240x320 screen.
+ *
+ * @author Gorkem Ercan
+ *
+ */
+public abstract class Displayable {
+
+	Displayable() {
+	}
+
+	public int getWidth() {
+		return 240;
+	}
+
+	public int getHeight() {
+		return 320;
+	}
+}
@@ -0,0 +1,214 @@
+/*************************************************************************
+* Copyright 2010 Gorkem Ercan
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*
+**************************************************************************/
+package javax.microedition.rms;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Desktop shim of the record store that keeps the records in memory. Stores
+ * live until {@link #deleteRecordStore(String)} is called, so reopening a
+ * store sees the records written earlier like on a device.
+ *
+ * @author Gorkem Ercan
+ *
+ */
+public class RecordStore {
+
+	private static final Map<String, RecordStore> STORES = new HashMap<String, RecordStore>();
+	/*
+	 * bytes the records of all stores may take, 0 for no limit, and the
+	 * bytes they take
+	 */
+	private static final Object USAGE = new Object();
+	private static int capacity;
+	private static int used;
+
+	private final TreeMap<Integer, byte[]> records = new TreeMap<Integer, byte[]>();
+	private int nextId = 1;
+	private int openCount;
+
+	private RecordStore() {
+	}
+
+	public static RecordStore openRecordStore(String name,
+			boolean createIfNecessary) throws RecordStoreException {
+		synchronized (STORES) {
+			RecordStore store = STORES.get(name);
+			if (store == null) {
+				if (!createIfNecessary) {
+					throw new RecordStoreException("No record store " + name);
+				}
+				store = new RecordStore();
+				STORES.put(name, store);
+			}
+			synchronized (store) {
+				store.openCount++;
+			}
+			return store;
+		}
+	}
+
+	public static void deleteRecordStore(String name)
+			throws RecordStoreException {
+		RecordStore store;
+		synchronized (STORES) {
+			store = STORES.remove(name);
+			if (store == null) {
+				throw new RecordStoreException("No record store " + name);
+			}
+		}
+		synchronized (store) {
+			for (Iterator<byte[]> i = store.records.values().iterator(); i
+					.hasNext();) {
+				use(-i.next().length);
+			}
+		}
+	}
+
+	/**
+	 * Limits the bytes the records of all stores may take, like the
+	 * storage of a device. Desktop only, used by the tests.
+	 *
+	 * @param bytes capacity, 0 for no limit
+	 */
+	public static void setCapacity(int bytes) {
+		synchronized (USAGE) {
+			capacity = bytes;
+		}
+	}
+
+	public int getSizeAvailable() {
+		synchronized (USAGE) {
+			return capacity == 0 ? Integer.MAX_VALUE : capacity - used;
+		}
+	}
+
+	/**
+	 * Accounts for the bytes a change adds to the records.
+	 *
+	 * @throws RecordStoreFullException if they do not fit the capacity
+	 */
+	private static void use(int bytes) throws RecordStoreFullException {
+		synchronized (USAGE) {
+			if (bytes > 0 && capacity > 0 && used + bytes > capacity) {
+				throw new RecordStoreFullException("Record store is full");
+			}
+			used += bytes;
+		}
+	}
+
+	public synchronized void closeRecordStore() throws RecordStoreException {
+		checkOpen();
+		openCount--;
+	}
+
+	public synchronized int addRecord(byte[] data, int offset, int length)
+			throws RecordStoreException {
+		checkOpen();
+		use(length);
+		records.put(Integer.valueOf(nextId), copy(data, offset, length));
+		return nextId++;
+	}
+
+	public synchronized void setRecord(int id, byte[] data, int offset,
+			int length) throws RecordStoreException {
+		use(length - checkRecord(id).length);
+		records.put(Integer.valueOf(id), copy(data, offset, length));
+	}
+
+	public synchronized byte[] getRecord(int id) throws RecordStoreException {
+		byte[] data = checkRecord(id);
+		return copy(data, 0, data.length);
+	}
+
+	public synchronized void deleteRecord(int id) throws RecordStoreException {
+		use(-checkRecord(id).length);
+		records.remove(Integer.valueOf(id));
+	}
+
+	public synchronized int getNumRecords() throws RecordStoreNotOpenException {
+		checkOpen();
+		return records.size();
+	}
+
+	public synchronized RecordEnumeration enumerateRecords(RecordFilter filter,
+			RecordComparator comparator, boolean keepUpdated)
+			throws RecordStoreNotOpenException {
+		checkOpen();
+		final int[] ids = new int[records.size()];
+		int count = 0;
+		for (Iterator<Integer> i = records.keySet().iterator(); i.hasNext();) {
+			Integer id = i.next();
+			if (filter == null || filter.matches(records.get(id))) {
+				ids[count++] = id.intValue();
+			}
+		}
+		final int size = count;
+		return new RecordEnumeration() {
+			private int index;
+
+			public int numRecords() {
+				return size;
+			}
+
+			public boolean hasNextElement() {
+				return index < size;
+			}
+
+			public int nextRecordId() throws InvalidRecordIDException {
+				if (index >= size) {
+					throw new InvalidRecordIDException("No more records");
+				}
+				return ids[index++];
+			}
+
+			public byte[] nextRecord() throws RecordStoreException {
+				return getRecord(nextRecordId());
+			}
+
+			public void destroy() {
+				index = size;
+			}
+		};
+	}
+
+	private void checkOpen() throws RecordStoreNotOpenException {
+		if (openCount <= 0) {
+			throw new RecordStoreNotOpenException("Record store is not open");
+		}
+	}
+
+	private byte[] checkRecord(int id) throws RecordStoreException {
+		checkOpen();
+		byte[] data = records.get(Integer.valueOf(id));
+		if (data == null) {
+			throw new InvalidRecordIDException("No record " + id);
+		}
+		return data;
+	}
+
+	private static byte[] copy(byte[] data, int offset, int length) {
+		byte[] copy = new byte[length];
+		if (length > 0) {
+			System.arraycopy(data, offset, copy, 0, length);
+		}
+		return copy;
+	}
+}
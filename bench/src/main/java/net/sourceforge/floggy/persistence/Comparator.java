@@ -0,0 +1,31 @@
+/*************************************************************************
+* Copyright 2010 Gorkem Ercan
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*
+**************************************************************************/
+package net.sourceforge.floggy.persistence;
+
+/**
+ * Desktop shim of the Floggy comparator.
+ *
+ * @author Gorkem Ercan
+ *
+ */
+public interface Comparator {
+	int EQUIVALENT = 0;
+	int FOLLOWS = 1;
+	int PRECEDES = -1;
+
+	int compare(Persistable p1, Persistable p2);
+}
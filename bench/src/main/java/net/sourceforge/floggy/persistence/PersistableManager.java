@@ -0,0 +1,125 @@
+/*************************************************************************
+* Copyright 2010 Gorkem Ercan
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*
+**************************************************************************/
+package net.sourceforge.floggy.persistence;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Desktop shim of the Floggy persistable manager that keeps the saved
+ * objects in memory instead of weaving them into record stores. Loading
+ * returns the saved instances themselves.
+ *
+ * @author Gorkem Ercan
+ *
+ */
+public class PersistableManager {
+	private static final PersistableManager INSTANCE = new PersistableManager();
+
+	private final TreeMap<Integer, Persistable> objects = new TreeMap<Integer, Persistable>();
+	private int nextId = 1;
+
+	private PersistableManager() {
+	}
+
+	public static PersistableManager getInstance() {
+		return INSTANCE;
+	}
+
+	public synchronized int save(Persistable persistable)
+			throws FloggyException {
+		int id = getId(persistable);
+		if (id < 0) {
+			id = nextId++;
+			objects.put(Integer.valueOf(id), persistable);
+		}
+		return id;
+	}
+
+	public synchronized int getId(Persistable persistable) {
+		for (Iterator<Map.Entry<Integer, Persistable>> i = objects.entrySet()
+				.iterator(); i.hasNext();) {
+			Map.Entry<Integer, Persistable> e = i.next();
+			if (e.getValue() == persistable) {
+				return e.getKey().intValue();
+			}
+		}
+		return -1;
+	}
+
+	public synchronized void delete(Persistable persistable)
+			throws FloggyException {
+		int id = getId(persistable);
+		if (id >= 0) {
+			objects.remove(Integer.valueOf(id));
+		}
+	}
+
+	public synchronized void deleteAll()
+			throws FloggyException {
+		objects.clear();
+	}
+
+	public synchronized void deleteAll(Class<?> type)
+			throws FloggyException {
+		for (Iterator<Persistable> i = objects.values().iterator(); i.hasNext();) {
+			if (type.isInstance(i.next())) {
+				i.remove();
+			}
+		}
+	}
+
+	public ObjectSet find(Class<?> type, Filter filter, Comparator comparator)
+			throws FloggyException {
+		return find(type, filter, comparator, false);
+	}
+
+	public synchronized ObjectSet find(Class<?> type, Filter filter,
+			final Comparator comparator, boolean lazy)
+			throws FloggyException {
+		final List<Persistable> found = new ArrayList<Persistable>();
+		for (Iterator<Persistable> i = objects.values().iterator(); i.hasNext();) {
+			Persistable p = i.next();
+			if (type.isInstance(p) && (filter == null || filter.matches(p))) {
+				found.add(p);
+			}
+		}
+		if (comparator != null) {
+			found.sort(new java.util.Comparator<Persistable>() {
+				public int compare(Persistable p1, Persistable p2) {
+					return comparator.compare(p1, p2);
+				}
+			});
+		}
+		return new ObjectSet() {
+			public int size() {
+				return found.size();
+			}
+
+			public Persistable get(int index) {
+				return found.get(index);
+			}
+
+			public int getId(int index) {
+				return INSTANCE.getId(found.get(index));
+			}
+		};
+	}
+}
@@ -0,0 +1,117 @@
+/*************************************************************************
+* Copyright 2010 Gorkem Ercan
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*
+**************************************************************************/
+package gercan.jme.analytics;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the handling of the batch responses, see
+ * {@link GoogleAnalytics#setBatchDispatch(String, int)}.
+ *
+ * @author Gorkem Ercan
+ *
+ */
+public class BatchDispatchTest {
+	private static final String ENDPOINT = "http://localhost/batch";
+
+	private GoogleAnalytics ga;
+	private ScriptedTransport transport;
+
+	@Before
+	public void setUp() {
+		ga = BenchTracker.create();
+		ga.clearDeadLetters();
+		ga.dispatchAll(60000L);
+		transport = new ScriptedTransport();
+		ga.setTransport(transport);
+		ga.setBatchDispatch(ENDPOINT, 25);
+		// failures are retried on the next dispatch without a backoff
+		ga.setRetryPolicy(10, 0, 0);
+		ga.setCircuitBreaker(0, 0);
+	}
+
+	@Test
+	public void parsesOneStatusPerLine() {
+		assertArrayEquals(new int[] { 200, 400, 503 },
+				GoogleAnalytics.parseStatuses("200\n400\r\n503\n".getBytes(),
+						3));
+	}
+
+	@Test
+	public void missingStatusesAreAccepted() {
+		assertArrayEquals(new int[] { 503, 200, 200 },
+				GoogleAnalytics.parseStatuses("503\n".getBytes(), 3));
+	}
+
+	@Test
+	public void bodyWithoutStatusesIsNotParsed() {
+		assertNull(GoogleAnalytics.parseStatuses(new byte[0], 2));
+		assertNull(GoogleAnalytics.parseStatuses("ok".getBytes(), 2));
+	}
+
+	@Test
+	public void perLineStatusesDecideEachHit() {
+		store(3);
+		transport.answer("200\n400\n503\n");
+
+		DispatchResult result = ga.dispatch(3);
+
+		assertEquals(1, result.getSent());
+		assertEquals(2, result.getFailed());
+		assertEquals(1, ga.getDeadLetterCount());
+		// the 503 is retried
+		assertEquals(1, ga.getStoredHitCount());
+	}
+
+	@Test
+	public void requestTooLargeKeepsTheBatch() {
+		store(25);
+		transport.fail(413);
+
+		DispatchResult result = ga.dispatch(25);
+
+		assertEquals(0, result.getSent());
+		assertEquals(25, result.getFailed());
+		assertEquals(0, ga.getDeadLetterCount());
+		assertEquals(25, ga.getStoredHitCount());
+	}
+
+	@Test
+	public void wrongEndpointKeepsTheBatch() {
+		store(5);
+		transport.fail(404);
+		ga.dispatch(5);
+
+		assertEquals(0, ga.getDeadLetterCount());
+		assertEquals(5, ga.getStoredHitCount());
+
+		// sent once the collector accepts them
+		assertEquals(5, ga.dispatch(5).getSent());
+		assertEquals(0, ga.getStoredHitCount());
+	}
+
+	private void store(int hits) {
+		for (int i = 0; i < hits; i++) {
+			ga.storeHit(Hit.pageView("/test/" + i));
+		}
+	}
+}
@@ -0,0 +1,183 @@
+/*************************************************************************
+* Copyright 2010 Gorkem Ercan
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*
+**************************************************************************/
+package gercan.jme.analytics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.lang.reflect.Constructor;
+
+import javax.microedition.midlet.MIDlet;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Kills the application in the middle of a dispatch and starts it again on
+ * the same record stores, the way a handset does when the user closes the
+ * application. A new tracker instance stands for each run of the
+ * application.
+ *
+ * @author Gorkem Ercan
+ *
+ */
+public class CrashRecoveryTest {
+	private static final String ENDPOINT = "http://localhost/batch";
+	private static final int MAX_ATTEMPTS = 10;
+
+	@Before
+	public void setUp() throws Exception {
+		// the record stores outlive the tests of the class
+		GoogleAnalytics ga = start();
+		ga.setTransport(new ScriptedTransport());
+		ga.dispatchAll(60000L);
+		ga.clearDeadLetters();
+	}
+
+	@Test
+	public void acknowledgedHitsAreNotSentAgain() throws Exception {
+		GoogleAnalytics ga = start();
+		store(ga, 20);
+		ScriptedTransport transport = new ScriptedTransport();
+		ga.setTransport(transport);
+		// 18 hits are acknowledged, the lanes are synced after the first 16
+		transport.killAt(18);
+		dispatch(ga);
+
+		ga = start();
+		transport = new ScriptedTransport();
+		ga.setTransport(transport);
+		assertEquals(2, ga.getStoredHitCount());
+		assertEquals(2, ga.dispatchAll(60000L).getSent());
+		assertEquals(2, transport.requests.size());
+		// the hit in flight goes back to the end of its lane
+		assertEquals("%2F19", page(transport.requests.elementAt(0)));
+		assertEquals("%2F18", page(transport.requests.elementAt(1)));
+	}
+
+	@Test
+	public void hitsOfEarlierDispatchesAreNotSentAgain() throws Exception {
+		GoogleAnalytics ga = start();
+		store(ga, 4);
+		ScriptedTransport transport = new ScriptedTransport();
+		ga.setTransport(transport);
+		// one hit at a time, like readAndDispatch
+		for (int i = 0; i < 3; i++) {
+			assertEquals(1, ga.dispatch(1).getSent());
+		}
+		transport.killAt(0);
+		dispatch(ga);
+
+		ga = start();
+		transport = new ScriptedTransport();
+		ga.setTransport(transport);
+		assertEquals(1, ga.dispatchAll(60000L).getSent());
+		assertEquals("%2F3", page(transport.requests.elementAt(0)));
+	}
+
+	@Test
+	public void storingHitsClearsTheAcknowledgedHits() throws Exception {
+		GoogleAnalytics ga = start();
+		// hits of the earlier versions carry no timestamp, all are alike
+		assertEquals(0, ga.getStoredHitCount());
+		for (int i = 0; i < 10; i++) {
+			ga.storeHit(Hit.url("/legacy"));
+		}
+		ga.setTransport(new ScriptedTransport());
+		assertEquals(4, ga.dispatch(4).getSent());
+		// syncs the lanes, the 4 hits are consumed for good
+		ga.storeHit(Hit.url("/legacy"));
+
+		ga = start();
+		ScriptedTransport transport = new ScriptedTransport();
+		ga.setTransport(transport);
+		assertEquals(7, ga.getStoredHitCount());
+		assertEquals(7, ga.dispatchAll(60000L).getSent());
+	}
+
+	@Test
+	public void hitInFlightIsCountedAsAnAttempt() throws Exception {
+		GoogleAnalytics ga = start();
+		store(ga, 1);
+		for (int i = 0; i < MAX_ATTEMPTS; i++) {
+			assertEquals(1, ga.getStoredHitCount());
+			killOnNextRequest(ga);
+			dispatch(ga);
+			ga = start();
+		}
+		// the hit that gets the application killed every time
+		assertEquals(0, ga.getStoredHitCount());
+		assertEquals(1, ga.getDeadLetterCount());
+	}
+
+	@Test
+	public void batchInFlightIsCountedAsAnAttempt() throws Exception {
+		GoogleAnalytics ga = start();
+		store(ga, 3);
+		for (int i = 0; i < MAX_ATTEMPTS; i++) {
+			assertEquals(3, ga.getStoredHitCount());
+			ga.setBatchDispatch(ENDPOINT, 25);
+			killOnNextRequest(ga);
+			dispatch(ga);
+			ga = start();
+		}
+		assertEquals(0, ga.getStoredHitCount());
+		assertEquals(3, ga.getDeadLetterCount());
+	}
+
+	/**
+	 * Runs the application again on the record stores left by the earlier
+	 * run.
+	 */
+	private static GoogleAnalytics start() throws Exception {
+		Constructor c = GoogleAnalytics.class.getDeclaredConstructor(
+				new Class[] { String.class, MIDlet.class });
+		c.setAccessible(true);
+		GoogleAnalytics ga = (GoogleAnalytics) c.newInstance(new Object[] {
+				"MO-0000000-1", new BenchMIDlet() });
+		ga.setAutoDispatch(0, 0);
+		return ga;
+	}
+
+	private static void store(GoogleAnalytics ga, int hits) {
+		for (int i = 0; i < hits; i++) {
+			ga.trackPageView("/" + i);
+		}
+	}
+
+	private static void killOnNextRequest(GoogleAnalytics ga) {
+		ScriptedTransport transport = new ScriptedTransport();
+		transport.killAt(0);
+		ga.setTransport(transport);
+	}
+
+	private static void dispatch(GoogleAnalytics ga) {
+		try {
+			ga.dispatchAll(60000L);
+			fail("the application was not killed");
+		} catch (ScriptedTransport.Killed e) {
+			// expected
+		}
+	}
+
+	private static String page(Object url) {
+		String s = (String) url;
+		int start = s.indexOf("&utmp=") + 6;
+		int end = s.indexOf('&', start);
+		return end < 0 ? s.substring(start) : s.substring(start, end);
+	}
+}
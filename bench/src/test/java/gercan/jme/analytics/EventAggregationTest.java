@@ -0,0 +1,156 @@
+/*************************************************************************
+* Copyright 2010 Gorkem Ercan
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*
+**************************************************************************/
+package gercan.jme.analytics;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the collapsing of the events tracked within a window, see
+ * {@link GoogleAnalytics#setEventAggregation(long, int, boolean)}.
+ *
+ * @author Gorkem Ercan
+ *
+ */
+public class EventAggregationTest {
+	private static final long WINDOW = 60000L;
+
+	private GoogleAnalytics ga;
+	private ScriptedTransport transport;
+
+	@Before
+	public void setUp() {
+		ga = BenchTracker.create();
+		ga.setTransport(new ScriptedTransport());
+		ga.dispatchAll(60000L);
+		transport = new ScriptedTransport();
+		ga.setTransport(transport);
+	}
+
+	@After
+	public void tearDown() {
+		ga.setEventAggregation(0, GoogleAnalytics.AGGREGATE_SUM);
+	}
+
+	@Test
+	public void sumsTheValues() {
+		ga.setEventAggregation(WINDOW, GoogleAnalytics.AGGREGATE_SUM);
+		track("tick", 2, 3);
+		ga.flush();
+
+		assertEquals(1, ga.dispatchAll(60000L).getSent());
+		assertEquals("5(game*scroll*tick)(6)", utme(0));
+	}
+
+	@Test
+	public void keepsTheMaximum() {
+		ga.setEventAggregation(WINDOW, GoogleAnalytics.AGGREGATE_MAX);
+		track("tick", 1, 1);
+		track("tick", 5, 1);
+		track("tick", 3, 1);
+		ga.flush();
+
+		assertEquals(1, ga.dispatchAll(60000L).getSent());
+		assertEquals("5(game*scroll*tick)(5)", utme(0));
+	}
+
+	@Test
+	public void countInLabelIsOptIn() {
+		ga.setEventAggregation(WINDOW, GoogleAnalytics.AGGREGATE_SUM, true);
+		track("tick", 1, 17);
+		track(null, 1, 2);
+		ga.flush();
+
+		assertEquals(2, ga.dispatchAll(60000L).getSent());
+		assertEquals(2, transport.requests.size());
+		String first = utme(0);
+		String second = utme(1);
+		if (first.indexOf("tick") < 0) {
+			String swap = first;
+			first = second;
+			second = swap;
+		}
+		assertEquals("5(game*scroll*tick+x17)(17)", first);
+		assertEquals("5(game*scroll*x2)(2)", second);
+	}
+
+	@Test
+	public void differentEventsAreNotCollapsed() {
+		ga.setEventAggregation(WINDOW, GoogleAnalytics.AGGREGATE_SUM);
+		track("a", 1, 2);
+		track("b", 1, 2);
+		ga.trackEvent("game", "scroll", "a", 1,
+				GoogleAnalytics.PRIORITY_BULK);
+		// critical events are sent as they are
+		ga.trackEvent("game", "scroll", "a", 1,
+				GoogleAnalytics.PRIORITY_CRITICAL);
+		ga.trackEvent("game", "scroll", "a", 1,
+				GoogleAnalytics.PRIORITY_CRITICAL);
+		ga.flush();
+
+		assertEquals(5, ga.dispatchAll(60000L).getSent());
+	}
+
+	@Test
+	public void windowEndsByItself() throws Exception {
+		ga.setEventAggregation(100, GoogleAnalytics.AGGREGATE_SUM);
+		track("tick", 1, 3);
+		// the timer submits the first window, the next event opens another
+		Thread.sleep(1000);
+		track("tick", 1, 2);
+		ga.flush();
+
+		assertEquals(2, ga.dispatchAll(60000L).getSent());
+		assertEquals(2, transport.requests.size());
+		int first = value(utme(0));
+		int second = value(utme(1));
+		assertEquals(2, Math.min(first, second));
+		assertEquals(3, Math.max(first, second));
+	}
+
+	@Test
+	public void disablingSubmitsTheWindow() {
+		ga.setEventAggregation(WINDOW, GoogleAnalytics.AGGREGATE_SUM);
+		track("tick", 1, 4);
+		ga.setEventAggregation(0, GoogleAnalytics.AGGREGATE_SUM);
+		track("tick", 1, 1);
+		ga.flush();
+
+		assertEquals(2, ga.dispatchAll(60000L).getSent());
+	}
+
+	private void track(String label, int value, int times) {
+		for (int i = 0; i < times; i++) {
+			ga.trackEvent("game", "scroll", label, value);
+		}
+	}
+
+	private String utme(int request) {
+		String url = (String) transport.requests.elementAt(request);
+		int start = url.indexOf("&utme=") + 6;
+		int end = url.indexOf('&', start);
+		return end < 0 ? url.substring(start) : url.substring(start, end);
+	}
+
+	private static int value(String utme) {
+		int start = utme.lastIndexOf('(') + 1;
+		return Integer.parseInt(utme.substring(start, utme.length() - 1));
+	}
+}
@@ -0,0 +1,143 @@
+/*************************************************************************
+* Copyright 2010 Gorkem Ercan
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*
+**************************************************************************/
+package gercan.jme.analytics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import javax.microedition.rms.RecordStore;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tracks hits when the record store is full, older hits make room for the
+ * new ones.
+ *
+ * @author Gorkem Ercan
+ *
+ */
+public class FullStoreTest {
+	private static final String SCRATCH = "test.scratch";
+
+	private GoogleAnalytics ga;
+	private ScriptedTransport transport;
+
+	@Before
+	public void setUp() {
+		ga = BenchTracker.create();
+		ga.clearDeadLetters();
+		ga.setTransport(new ScriptedTransport());
+		ga.dispatchAll(60000L);
+		transport = new ScriptedTransport();
+		ga.setTransport(transport);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		RecordStore.setCapacity(0);
+		ga.dispatchAll(60000L);
+	}
+
+	@Test
+	public void oldestHitsMakeRoomForANewHit() throws Exception {
+		fillSegments();
+		int storedBefore = count(ga.getStats().getStoreLatency());
+
+		int tracked = trackUntilEvicted();
+
+		// every new hit is stored, older ones were evicted
+		assertEquals(storedBefore + tracked,
+				count(ga.getStats().getStoreLatency()));
+		int stored = ga.getStoredHitCount();
+		assertTrue(stored < 100 + tracked);
+		RecordStore.setCapacity(0);
+		assertEquals(stored, ga.dispatchAll(60000L).getSent());
+		assertEquals("%2Fnew" + (tracked - 1),
+				page(transport.requests.lastElement()));
+	}
+
+	@Test
+	public void newHitIsDroppedWhenNothingCanBeEvicted() throws Exception {
+		ga.setEvictionPolicy(GoogleAnalytics.EVICT_DROP_NEWEST);
+		fillSegments();
+		int storedBefore = count(ga.getStats().getStoreLatency());
+
+		int tracked = trackUntilEvicted();
+
+		// the last hit did not fit
+		assertEquals(storedBefore + tracked - 1,
+				count(ga.getStats().getStoreLatency()));
+		assertEquals(100 + tracked - 1, ga.getStoredHitCount());
+	}
+
+	/**
+	 * Stores hits over several segments and leaves no room for more
+	 * records. Critical hits are stored right away.
+	 */
+	private void fillSegments() throws Exception {
+		for (int i = 0; i < 100; i++) {
+			ga.trackPageView("/" + i, GoogleAnalytics.PRIORITY_CRITICAL);
+		}
+		fill();
+	}
+
+	/**
+	 * Tracks hits until one does not fit, the tail segment takes the first
+	 * ones.
+	 *
+	 * @return number of the hits tracked
+	 */
+	private int trackUntilEvicted() {
+		int evicted = ga.getStats().getEvicted();
+		int tracked = 0;
+		while (ga.getStats().getEvicted() == evicted) {
+			assertTrue(tracked < 100);
+			ga.trackPageView("/new" + tracked++,
+					GoogleAnalytics.PRIORITY_CRITICAL);
+		}
+		return tracked;
+	}
+
+	/**
+	 * Sets the capacity of the record stores to the bytes they take now.
+	 */
+	private static void fill() throws Exception {
+		RecordStore.setCapacity(Integer.MAX_VALUE);
+		RecordStore store = RecordStore.openRecordStore(SCRATCH, true);
+		int used = Integer.MAX_VALUE - store.getSizeAvailable();
+		store.closeRecordStore();
+		RecordStore.deleteRecordStore(SCRATCH);
+		RecordStore.setCapacity(used);
+	}
+
+	private static int count(int[] histogram) {
+		int count = 0;
+		for (int i = 0; i < histogram.length; i++) {
+			count += histogram[i];
+		}
+		return count;
+	}
+
+	private static String page(Object url) {
+		String s = (String) url;
+		int start = s.indexOf("&utmp=") + 6;
+		int end = s.indexOf('&', start);
+		return end < 0 ? s.substring(start) : s.substring(start, end);
+	}
+}
@@ -0,0 +1,128 @@
+/*************************************************************************
+* Copyright 2010 Gorkem Ercan
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*
+**************************************************************************/
+package gercan.jme.analytics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+import javax.microedition.rms.RecordStore;
+
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Tests the record store journal of the hits, see {@link HitJournal}.
+ *
+ * @author Gorkem Ercan
+ *
+ */
+public class HitJournalTest {
+	private static final String NAME = "test.journal";
+
+	@After
+	public void tearDown() throws Exception {
+		RecordStore.setCapacity(0);
+		RecordStore.deleteRecordStore(NAME);
+	}
+
+	@Test
+	public void fullStoreKeepsTheHits() throws Exception {
+		HitJournal journal = new HitJournal(NAME);
+		journal.open();
+		int appended = 0;
+		while (appended < 40) {
+			journal.append(hit(appended++));
+			journal.sync();
+		}
+		// nothing more fits, not even the record of a new segment
+		fill();
+		while (journal.append(hit(appended))) {
+			appended++;
+		}
+		assertFalse(journal.append(hit(appended)));
+		assertEquals(appended, journal.size());
+		journal.sync();
+
+		RecordStore.setCapacity(0);
+		journal.sync();
+		HitJournal reopened = new HitJournal(NAME);
+		reopened.open();
+		assertEquals(appended, reopened.size());
+		assertHits(reopened, appended);
+
+		assertHits(journal, appended);
+	}
+
+	@Test
+	public void appendsAgainOnceThereIsRoom() throws Exception {
+		HitJournal journal = new HitJournal(NAME);
+		journal.open();
+		int appended = 0;
+		while (appended < 20) {
+			journal.append(hit(appended++));
+		}
+		journal.sync();
+		fill();
+		while (journal.append(hit(appended))) {
+			appended++;
+		}
+		RecordStore.setCapacity(0);
+		assertEquals(true, journal.append(hit(appended++)));
+		journal.sync();
+
+		HitJournal reopened = new HitJournal(NAME);
+		reopened.open();
+		assertHits(reopened, appended);
+	}
+
+	/**
+	 * Sets the capacity to the bytes the records take now.
+	 */
+	private static void fill() throws Exception {
+		RecordStore.setCapacity(Integer.MAX_VALUE);
+		RecordStore store = RecordStore.openRecordStore(NAME, false);
+		int used = Integer.MAX_VALUE - store.getSizeAvailable();
+		store.closeRecordStore();
+		RecordStore.setCapacity(used);
+	}
+
+	private static void assertHits(HitJournal journal, int count) {
+		for (int i = 0; i < count; i++) {
+			byte[] hit = journal.peek();
+			assertEquals(i, sequence(hit));
+			journal.remove();
+		}
+		assertNull(journal.peek());
+		assertEquals(0, journal.size());
+	}
+
+	/**
+	 * @return hit payload of 100 bytes carrying its sequence number
+	 */
+	private static byte[] hit(int sequence) {
+		byte[] hit = new byte[100];
+		hit[0] = Hit.TYPE_PAGEVIEW;
+		hit[2] = (byte) (sequence >> 8);
+		hit[3] = (byte) sequence;
+		return hit;
+	}
+
+	private static int sequence(byte[] hit) {
+		return ((hit[2] & 0xff) << 8) | (hit[3] & 0xff);
+	}
+}
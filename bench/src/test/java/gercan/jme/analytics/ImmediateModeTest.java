@@ -0,0 +1,126 @@
+/*************************************************************************
+* Copyright 2010 Gorkem Ercan
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*
+**************************************************************************/
+package gercan.jme.analytics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.Vector;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Sends hits on the immediate mode, a hit that fails with something other
+ * than a network error must not stop the hits queued after it.
+ *
+ * @author Gorkem Ercan
+ *
+ */
+public class ImmediateModeTest {
+	private static final long TIMEOUT = 10000L;
+
+	private GoogleAnalytics ga;
+
+	@Before
+	public void setUp() {
+		ga = BenchTracker.create();
+		ga.setTransport(new ScriptedTransport());
+		ga.dispatchAll(60000L);
+		ga.setCircuitBreaker(0, 0);
+		ga.setImmediate(true);
+	}
+
+	@After
+	public void tearDown() {
+		ga.setImmediate(false);
+	}
+
+	@Test
+	public void eventWithoutCategoryIsRejected() {
+		try {
+			ga.trackEvent(null, "action", null, -1);
+			fail("an event without a category was tracked");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+		try {
+			ga.trackEvent("category", null, null, -1);
+			fail("an event without an action was tracked");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void dispatcherSurvivesAHitThatCanNotBeSent() throws Exception {
+		CrashingTransport transport = new CrashingTransport();
+		ga.setTransport(transport);
+		ga.trackPageView("/first");
+		ga.trackPageView("/second");
+
+		assertEquals("%2Fsecond", page(transport.await()));
+		// the hit that crashed is not stored and retried
+		assertEquals(0, ga.getStoredHitCount());
+	}
+
+	private static String page(String url) {
+		int start = url.indexOf("&utmp=") + 6;
+		int end = url.indexOf('&', start);
+		return end < 0 ? url.substring(start) : url.substring(start, end);
+	}
+
+	/**
+	 * Throws a runtime exception on the first request.
+	 */
+	private static final class CrashingTransport implements HitTransport {
+		private final Vector requests = new Vector();
+		private boolean crashed;
+
+		public synchronized void send(String url, String userAgent)
+				throws IOException {
+			if (!crashed) {
+				crashed = true;
+				throw new IllegalStateException("crash");
+			}
+			requests.addElement(url);
+			notifyAll();
+		}
+
+		public byte[] post(String url, byte[] body, String userAgent)
+				throws IOException {
+			throw new IOException("not used");
+		}
+
+		public void setTimeouts(int connectTimeout, int readTimeout) {
+		}
+
+		synchronized String await() throws InterruptedException {
+			long end = System.currentTimeMillis() + TIMEOUT;
+			while (requests.isEmpty()) {
+				long left = end - System.currentTimeMillis();
+				if (left <= 0) {
+					fail("the hit queued after the crash was not sent");
+				}
+				wait(left);
+			}
+			return (String) requests.elementAt(0);
+		}
+	}
+}
@@ -0,0 +1,62 @@
+/*************************************************************************
+* Copyright 2010 Gorkem Ercan
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*
+**************************************************************************/
+package gercan.jme.analytics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.Constructor;
+
+import javax.microedition.midlet.MIDlet;
+
+import org.junit.Test;
+
+/**
+ * Starts a tracker whose initialization fails, the calls that wait for it
+ * must not block and the hits are kept in memory.
+ *
+ * @author Gorkem Ercan
+ *
+ */
+public class InitFailureTest {
+
+	@Test(timeout = 10000)
+	public void trackerWorksInMemory() throws Exception {
+		// the display of a null MIDlet throws on the initialization thread
+		GoogleAnalytics ga = start(null);
+		ga.trackPageView("/failed", GoogleAnalytics.PRIORITY_CRITICAL);
+
+		assertEquals(1, ga.getStats().getStoredHits());
+		ScriptedTransport transport = new ScriptedTransport();
+		ga.setTransport(transport);
+		assertEquals(1, ga.dispatchAll(60000L).getSent());
+		String url = (String) transport.requests.elementAt(0);
+		assertTrue(url.indexOf("&utmp=%2Ffailed") > 0);
+		// the session data was not loaded
+		assertTrue(url.indexOf("&utmcc=") < 0);
+	}
+
+	private static GoogleAnalytics start(MIDlet midlet) throws Exception {
+		Constructor c = GoogleAnalytics.class.getDeclaredConstructor(
+				new Class[] { String.class, MIDlet.class });
+		c.setAccessible(true);
+		GoogleAnalytics ga = (GoogleAnalytics) c.newInstance(new Object[] {
+				"MO-0000000-1", midlet });
+		ga.setAutoDispatch(0, 0);
+		return ga;
+	}
+}
@@ -0,0 +1,114 @@
+/*************************************************************************
+* Copyright 2010 Gorkem Ercan
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*
+**************************************************************************/
+package gercan.jme.analytics;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the order the hits of the priority lanes are sent in, see
+ * {@link GoogleAnalytics#setLaneWeights(int, int, int)}.
+ *
+ * @author Gorkem Ercan
+ *
+ */
+public class LaneOrderTest {
+	private GoogleAnalytics ga;
+	private ScriptedTransport transport;
+
+	@Before
+	public void setUp() {
+		ga = BenchTracker.create();
+		ga.setTransport(new ScriptedTransport());
+		ga.dispatchAll(60000L);
+		transport = new ScriptedTransport();
+		ga.setTransport(transport);
+	}
+
+	@After
+	public void tearDown() {
+		ga.setLaneWeights(8, 4, 1);
+	}
+
+	@Test
+	public void lanesTakeTurnsByWeight() {
+		ga.setLaneWeights(2, 1, 1);
+		store('b', GoogleAnalytics.PRIORITY_BULK, 4);
+		store('n', GoogleAnalytics.PRIORITY_NORMAL, 4);
+		store('c', GoogleAnalytics.PRIORITY_CRITICAL, 4);
+
+		assertEquals(12, ga.dispatchAll(60000L).getSent());
+		// an empty lane gives its turns to the others
+		assertEquals("cnbccnbcnbnb", sentLanes());
+	}
+
+	@Test
+	public void criticalHitSkipsTheBacklog() {
+		store('n', GoogleAnalytics.PRIORITY_NORMAL, 50);
+		store('c', GoogleAnalytics.PRIORITY_CRITICAL, 1);
+
+		assertEquals(1, ga.dispatch(1).getSent());
+		assertEquals("c", sentLanes());
+	}
+
+	@Test
+	public void bulkLaneIsNotStarved() {
+		store('b', GoogleAnalytics.PRIORITY_BULK, 2);
+		store('n', GoogleAnalytics.PRIORITY_NORMAL, 20);
+		store('c', GoogleAnalytics.PRIORITY_CRITICAL, 20);
+
+		// one of every 13 hits is a bulk one with the default weights
+		assertEquals(13, ga.dispatch(13).getSent());
+		String lanes = sentLanes();
+		assertEquals(1, count(lanes, 'b'));
+		assertEquals(4, count(lanes, 'n'));
+		assertEquals(8, count(lanes, 'c'));
+	}
+
+	private void store(char lane, int priority, int hits) {
+		for (int i = 0; i < hits; i++) {
+			Hit hit = Hit.pageView("/" + lane + i);
+			hit.priority = priority;
+			ga.storeHit(hit);
+		}
+	}
+
+	/**
+	 * @return first letter of the pages sent, in the order they were sent
+	 */
+	private String sentLanes() {
+		StringBuffer lanes = new StringBuffer();
+		for (int i = 0; i < transport.requests.size(); i++) {
+			String url = (String) transport.requests.elementAt(i);
+			lanes.append(url.charAt(url.indexOf("&utmp=%2F") + 9));
+		}
+		return lanes.toString();
+	}
+
+	private static int count(String s, char ch) {
+		int count = 0;
+		for (int i = 0; i < s.length(); i++) {
+			if (s.charAt(i) == ch) {
+				count++;
+			}
+		}
+		return count;
+	}
+}
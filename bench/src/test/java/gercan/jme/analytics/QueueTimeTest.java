@@ -0,0 +1,99 @@
+/*************************************************************************
+* Copyright 2010 Gorkem Ercan
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*
+**************************************************************************/
+package gercan.jme.analytics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Hashtable;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the queue time and the cache buster of the stored hits.
+ *
+ * @author Gorkem Ercan
+ *
+ */
+public class QueueTimeTest {
+	private GoogleAnalytics ga;
+	private ScriptedTransport transport;
+
+	@Before
+	public void setUp() {
+		ga = BenchTracker.create();
+		ga.setTransport(new ScriptedTransport());
+		ga.dispatchAll(60000L);
+		transport = new ScriptedTransport();
+		ga.setTransport(transport);
+	}
+
+	@Test
+	public void queueTimeIsTheAgeOfTheHit() {
+		Hit hit = Hit.pageView("/old");
+		hit.time = System.currentTimeMillis() - 3600000L;
+		ga.storeHit(hit);
+
+		assertEquals(1, ga.dispatchAll(60000L).getSent());
+		long queued = Long.parseLong(param(0, "utmqt"));
+		assertTrue(queued >= 3600000L);
+		assertTrue(queued < 3600000L + 60000L);
+	}
+
+	@Test
+	public void hitWithoutTimeHasNoQueueTime() {
+		// stored by a version that did not record the time
+		Hit hit = Hit.pageView("/unknown");
+		hit.time = 0;
+		ga.storeHit(hit);
+
+		assertEquals(1, ga.dispatchAll(60000L).getSent());
+		assertNull(param(0, "utmqt"));
+	}
+
+	@Test
+	public void eachRequestHasItsOwnCacheBuster() {
+		for (int i = 0; i < 20; i++) {
+			ga.storeHit(Hit.pageView("/test/" + i));
+		}
+
+		assertEquals(20, ga.dispatchAll(60000L).getSent());
+		Hashtable seen = new Hashtable();
+		for (int i = 0; i < 20; i++) {
+			String utmn = param(i, "utmn");
+			assertTrue(Integer.parseInt(utmn) >= 0);
+			seen.put(utmn, utmn);
+		}
+		assertTrue(seen.size() > 1);
+	}
+
+	/**
+	 * @return value of the parameter of the request, null if it is missing
+	 */
+	private String param(int request, String name) {
+		String url = (String) transport.requests.elementAt(request);
+		int start = url.indexOf("&" + name + "=");
+		if (start < 0) {
+			return null;
+		}
+		start += name.length() + 2;
+		int end = url.indexOf('&', start);
+		return end < 0 ? url.substring(start) : url.substring(start, end);
+	}
+}
@@ -0,0 +1,99 @@
+/*************************************************************************
+* Copyright 2010 Gorkem Ercan
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*
+**************************************************************************/
+package gercan.jme.analytics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the sampling of the users, see
+ * {@link GoogleAnalytics#setSampleRates(int, int)}.
+ *
+ * @author Gorkem Ercan
+ *
+ */
+public class SamplingTest {
+	private GoogleAnalytics ga;
+
+	@Before
+	public void setUp() {
+		ga = BenchTracker.create();
+		ga.setTransport(new ScriptedTransport());
+		ga.dispatchAll(60000L);
+	}
+
+	@After
+	public void tearDown() {
+		ga.setSampleRate(100);
+	}
+
+	@Test
+	public void userIsTrackedFromOneRateUp() {
+		int first = -1;
+		for (int rate = 0; rate <= 100; rate++) {
+			ga.setSampleRate(rate);
+			boolean tracked = pageViewStored();
+			if (first < 0 && tracked) {
+				first = rate;
+			}
+			assertEquals("rate " + rate, first >= 0, tracked);
+		}
+		assertTrue(first > 0);
+		// the decision does not change from hit to hit
+		ga.setSampleRate(first - 1);
+		assertFalse(pageViewStored());
+		ga.setSampleRate(first);
+		assertTrue(pageViewStored());
+	}
+
+	@Test
+	public void pageViewsAndEventsHaveTheirOwnRate() {
+		ga.setSampleRates(100, 0);
+		assertTrue(pageViewStored());
+		assertFalse(eventStored());
+
+		ga.setSampleRates(0, 100);
+		assertFalse(pageViewStored());
+		assertTrue(eventStored());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rateAboveHundredIsRejected() {
+		ga.setSampleRates(50, 101);
+	}
+
+	/*
+	 * critical hits are stored right away
+	 */
+	private boolean pageViewStored() {
+		int stored = ga.getStoredHitCount();
+		ga.trackPageView("/sampled", GoogleAnalytics.PRIORITY_CRITICAL);
+		return ga.getStoredHitCount() > stored;
+	}
+
+	private boolean eventStored() {
+		int stored = ga.getStoredHitCount();
+		ga.trackEvent("sampling", "test", null, -1,
+				GoogleAnalytics.PRIORITY_CRITICAL);
+		return ga.getStoredHitCount() > stored;
+	}
+}
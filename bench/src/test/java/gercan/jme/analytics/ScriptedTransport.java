@@ -0,0 +1,102 @@
+/*************************************************************************
+* Copyright 2010 Gorkem Ercan
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*
+**************************************************************************/
+package gercan.jme.analytics;
+
+import java.io.IOException;
+import java.util.Vector;
+
+/**
+ * Transport of the tests, it records the requests and answers the POSTs
+ * with the bodies or the statuses queued by the test. GETs are accepted.
+ * The transport can also stand for the end of the application in the
+ * middle of a request, see {@link #killAt(int)}.
+ *
+ * @author Gorkem Ercan
+ *
+ */
+final class ScriptedTransport implements HitTransport {
+
+	/**
+	 * Thrown instead of making a request, the tracker does not catch
+	 * errors so nothing runs after it like after the end of the
+	 * application.
+	 */
+	static final class Killed extends Error {
+		private static final long serialVersionUID = 1L;
+	}
+
+	/*
+	 * urls of the GETs, bodies of the POSTs
+	 */
+	final Vector requests = new Vector();
+	private final Vector answers = new Vector();
+	private int killAt = -1;
+
+	/**
+	 * Kills the application instead of making a request.
+	 *
+	 * @param request number of the requests made before, 0 for the next
+	 *            one
+	 */
+	synchronized void killAt(int request) {
+		killAt = requests.size() + request;
+	}
+
+	/**
+	 * Queues the response body of the next POST.
+	 */
+	synchronized void answer(String body) {
+		answers.addElement(body.getBytes());
+	}
+
+	/**
+	 * Queues a status other than 200 for the next POST.
+	 */
+	synchronized void fail(int status) {
+		answers.addElement(new HttpStatusException(status));
+	}
+
+	public synchronized void send(String url, String userAgent)
+			throws IOException {
+		checkKilled();
+		requests.addElement(url);
+	}
+
+	public synchronized byte[] post(String url, byte[] body, String userAgent)
+			throws IOException {
+		checkKilled();
+		requests.addElement(new String(body));
+		if (answers.isEmpty()) {
+			return new byte[0];
+		}
+		Object answer = answers.elementAt(0);
+		answers.removeElementAt(0);
+		if (answer instanceof HttpStatusException) {
+			throw (HttpStatusException) answer;
+		}
+		return (byte[]) answer;
+	}
+
+	public void setTimeouts(int connectTimeout, int readTimeout) {
+	}
+
+	private void checkKilled() {
+		if (requests.size() == killAt) {
+			throw new Killed();
+		}
+	}
+}
@@ -0,0 +1,101 @@
+/*************************************************************************
+* Copyright 2010 Gorkem Ercan
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*
+**************************************************************************/
+package gercan.jme.analytics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Reports timings aggregated over a window, see
+ * {@link GoogleAnalytics#setTimingAggregation(int, long, int[], boolean)}.
+ *
+ * @author Gorkem Ercan
+ *
+ */
+public class TimingAggregationTest {
+	private static final long WINDOW = 60000L;
+
+	private GoogleAnalytics ga;
+	private ScriptedTransport transport;
+
+	@Before
+	public void setUp() {
+		ga = BenchTracker.create();
+		ga.setTransport(new ScriptedTransport());
+		ga.dispatchAll(60000L);
+		transport = new ScriptedTransport();
+		ga.setTransport(transport);
+	}
+
+	@After
+	public void tearDown() {
+		ga.setTimingAggregation(GoogleAnalytics.TIMING_EACH, 0, null);
+	}
+
+	@Test
+	public void percentileLabelHasNoCount() {
+		ga.setTimingAggregation(GoogleAnalytics.TIMING_PERCENTILES, WINDOW,
+				new int[] { 90 });
+		time(3);
+		ga.flush();
+
+		assertEquals(1, ga.dispatchAll(60000L).getSent());
+		assertTrue(utme(0).endsWith("*p90)(90!100)"));
+	}
+
+	@Test
+	public void countInLabelIsOptIn() {
+		ga.setTimingAggregation(GoogleAnalytics.TIMING_BUCKETS, WINDOW,
+				new int[] { 100000 }, true);
+		time(3);
+		ga.flush();
+
+		assertEquals(1, ga.dispatchAll(60000L).getSent());
+		assertTrue(utme(0).endsWith("*%3C100000+x3)(90!100)"));
+	}
+
+	@Test
+	public void endedTimingIsReportedByTheTimer() throws Exception {
+		int stored = ga.getStoredHitCount();
+		time(1);
+		long end = System.currentTimeMillis() + 10000L;
+		while (ga.getStoredHitCount() == stored) {
+			assertTrue("the timing was not reported",
+					System.currentTimeMillis() < end);
+			Thread.sleep(50);
+		}
+		assertEquals(1, ga.dispatchAll(60000L).getSent());
+		assertTrue(utme(0).startsWith("14(90!load*screen*"));
+	}
+
+	private void time(int count) {
+		for (int i = 0; i < count; i++) {
+			ga.endTiming(ga.startTiming("screen", "load"));
+		}
+	}
+
+	private String utme(int request) {
+		String url = (String) transport.requests.elementAt(request);
+		int start = url.indexOf("&utme=") + 6;
+		int end = url.indexOf('&', start);
+		return end < 0 ? url.substring(start) : url.substring(start, end);
+	}
+}
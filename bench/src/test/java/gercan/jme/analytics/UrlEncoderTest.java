@@ -0,0 +1,76 @@
+/*************************************************************************
+* Copyright 2010 Gorkem Ercan
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*
+**************************************************************************/
+package gercan.jme.analytics;
+
+import static org.junit.Assert.assertEquals;
+
+import java.net.URLEncoder;
+
+import org.junit.Test;
+
+/**
+ * Tests the encoding of the url parameters, see {@link UrlEncoder}.
+ *
+ * @author Gorkem Ercan
+ *
+ */
+public class UrlEncoderTest {
+
+	@Test
+	public void safeCharactersAreKept() {
+		assertEquals("aZ09.-*_", UrlEncoder.encode("aZ09.-*_"));
+	}
+
+	@Test
+	public void asciiIsEscaped() {
+		assertEquals("a+b%2F%26%3D%25%0A", UrlEncoder.encode("a b/&=%\n"));
+	}
+
+	@Test
+	public void nonAsciiIsEncodedAsUtf8() {
+		// two and three byte sequences
+		assertEquals("%C3%A9", UrlEncoder.encode("\u00e9"));
+		assertEquals("%E2%82%AC", UrlEncoder.encode("\u20ac"));
+		assertEquals("%EF%BF%BF", UrlEncoder.encode("\uffff"));
+	}
+
+	@Test
+	public void surrogatePairIsOneCharacter() {
+		assertEquals("%F0%9F%98%80", UrlEncoder.encode("\ud83d\ude00"));
+		assertEquals("a%F4%8F%BF%BFb", UrlEncoder.encode("a\udbff\udfffb"));
+	}
+
+	@Test
+	public void unpairedSurrogateIsReplaced() {
+		assertEquals("%EF%BF%BDa", UrlEncoder.encode("\ud83da"));
+		assertEquals("%EF%BF%BD", UrlEncoder.encode("\ude00"));
+		assertEquals("%EF%BF%BD%EF%BF%BD", UrlEncoder.encode("\ude00\ud83d"));
+	}
+
+	@Test
+	public void matchesTheJavaSeEncoder() throws Exception {
+		String s = "Caf\u00e9 \u00fcber/\u20ac 5 \u4e2d\u6587 \ud83d\ude00!";
+		assertEquals(URLEncoder.encode(s, "UTF-8"), UrlEncoder.encode(s));
+	}
+
+	@Test
+	public void appendsToTheBuffer() {
+		StringBuffer buf = new StringBuffer("&utmp=");
+		UrlEncoder.encode("/a b", buf);
+		assertEquals("&utmp=%2Fa+b", buf.toString());
+	}
+}
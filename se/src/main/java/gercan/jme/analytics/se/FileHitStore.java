@@ -0,0 +1,478 @@
+/*************************************************************************
+* Copyright 2010 Gorkem Ercan
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*
+**************************************************************************/
+package gercan.jme.analytics.se;
+
+import gercan.jme.analytics.HitStore;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * <p>
+ * Java SE hit store on an append-only file. Hits are appended to the end of
+ * the file and consumed from the head, the offset of the head is kept in the
+ * file header and persisted with {@link #sync()} together with the appended
+ * hits. Hits dropped from the middle get their first byte overwritten with
+ * {@link #TOMBSTONE}. When the consumed part grows past
+ * {@link #COMPACT_THRESHOLD} and half of the file, the live part is copied to
+ * a new file that replaces the old one.
+ * </p>
+ * <p>
+ * Only the offsets, lengths and first bytes of the hits are kept in memory.
+ * File layout:
+ * <pre>
+ * header : magic(int) headOffset(long)
+ * entry  : length(short) payload(bytes)
+ * </pre>
+ * </p>
+ *
+ * @author Gorkem Ercan
+ *
+ */
+public final class FileHitStore implements HitStore {
+	/**
+	 * First byte of a dropped hit.
+	 */
+	static final byte TOMBSTONE = 0;
+	static final long COMPACT_THRESHOLD = 1L << 20;
+
+	private static final int MAGIC = 0x47414831;
+	private static final int HEADER = 12;
+	private static final int ANY = -1;
+	/*
+	 * hits at the head that are thinned together, like a journal segment
+	 */
+	private static final int THIN_WINDOW = 64;
+
+	private final File file;
+	private FileChannel channel;
+	private long end;
+
+	/*
+	 * ring of the entries from the head to the tail, tombstones included
+	 */
+	private long[] positions = new long[256];
+	private int[] lengths = new int[256];
+	private byte[] types = new byte[256];
+	private int first;
+	private int count;
+
+	private int size;
+	private int bytes;
+	private boolean dirty;
+	private boolean headDirty;
+	private int claimed;
+	private ByteBuffer writeBuffer = ByteBuffer.allocate(512);
+	private final ByteBuffer header = ByteBuffer.allocate(HEADER);
+	private final ByteBuffer one = ByteBuffer.allocate(1);
+
+	public FileHitStore(File file) {
+		this.file = file;
+	}
+
+	public boolean open() {
+		try {
+			channel = FileChannel.open(file.toPath(), StandardOpenOption.READ,
+					StandardOpenOption.WRITE, StandardOpenOption.CREATE);
+			long length = channel.size();
+			long head = HEADER;
+			if (length < HEADER) {
+				channel.truncate(0);
+				writeHeader(HEADER);
+				length = HEADER;
+			} else {
+				header.clear();
+				readFully(header, 0);
+				if (header.getInt(0) != MAGIC) {
+					throw new IOException("Not a hit store " + file);
+				}
+				head = header.getLong(4);
+				if (head < HEADER || head > length) {
+					// the file was truncated after the last sync
+					head = Math.min(Math.max(head, HEADER), length);
+					headDirty = true;
+				}
+			}
+			first = 0;
+			count = 0;
+			size = 0;
+			bytes = 0;
+			end = scan(head, length);
+			if (end < length) {
+				// drop the hit that was cut off while being appended
+				channel.truncate(end);
+			}
+			return true;
+		} catch (IOException e) {
+			e.printStackTrace();
+			close();
+			return false;
+		}
+	}
+
+	public boolean isOpen() {
+		return channel != null;
+	}
+
+	public boolean append(byte[] hit) {
+		if (channel == null || hit.length == 0 || hit.length > 0xffff) {
+			return false;
+		}
+		int entryLength = hit.length + 2;
+		if (writeBuffer.capacity() < entryLength) {
+			writeBuffer = ByteBuffer.allocate(entryLength);
+		}
+		writeBuffer.clear();
+		writeBuffer.putShort((short) hit.length).put(hit).flip();
+		try {
+			long pos = end;
+			while (writeBuffer.hasRemaining()) {
+				pos += channel.write(writeBuffer, pos);
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+			return false;
+		}
+		add(end, hit.length, hit[0]);
+		end += entryLength;
+		size++;
+		bytes += entryLength;
+		dirty = true;
+		return true;
+	}
+
+	public byte[] peek() {
+		if (size == 0) {
+			return null;
+		}
+		skipTombstones();
+		byte[] hit = new byte[lengths[first]];
+		try {
+			readFully(ByteBuffer.wrap(hit), positions[first] + 2);
+		} catch (IOException e) {
+			e.printStackTrace();
+			return null;
+		}
+		return hit;
+	}
+
+	public byte[] claim() {
+		if (size <= claimed) {
+			return null;
+		}
+		skipTombstones();
+		int live = 0;
+		for (int i = 0; i < count; i++) {
+			int index = (first + i) % positions.length;
+			if (types[index] != TOMBSTONE && live++ == claimed) {
+				byte[] hit = new byte[lengths[index]];
+				try {
+					readFully(ByteBuffer.wrap(hit), positions[index] + 2);
+				} catch (IOException e) {
+					e.printStackTrace();
+					return null;
+				}
+				claimed++;
+				return hit;
+			}
+		}
+		return null;
+	}
+
+	public void commit() {
+		while (claimed > 0) {
+			claimed--;
+			removeHead();
+		}
+	}
+
+	public void release() {
+		claimed = 0;
+	}
+
+	public boolean remove() {
+		if (size == 0) {
+			return false;
+		}
+		if (claimed > 0) {
+			return dropFirst(ANY);
+		}
+		removeHead();
+		return true;
+	}
+
+	public void updateHead(int offset, byte value) {
+		if (size == 0) {
+			return;
+		}
+		skipTombstones();
+		if (writeByte(positions[first] + 2 + offset, value) && offset == 0) {
+			types[first] = value;
+		}
+	}
+
+	public boolean dropFirst(byte type) {
+		return dropFirst((int) type);
+	}
+
+	private boolean dropFirst(int type) {
+		if (size <= claimed) {
+			return false;
+		}
+		skipTombstones();
+		int skip = claimed;
+		for (int i = 0; i < count; i++) {
+			int index = (first + i) % positions.length;
+			if (types[index] == TOMBSTONE) {
+				continue;
+			}
+			if (skip > 0) {
+				skip--;
+			} else if (type == ANY || types[index] == type) {
+				return drop(index);
+			}
+		}
+		return false;
+	}
+
+	public int thin() {
+		if (size == 0) {
+			return 0;
+		}
+		skipTombstones();
+		int live = 0;
+		int dropped = 0;
+		for (int i = 0; i < count && i < THIN_WINDOW; i++) {
+			int index = (first + i) % positions.length;
+			// claimed hits are the first live ones, they are never dropped
+			if (types[index] != TOMBSTONE && live++ >= claimed
+					&& live % 2 == 0 && drop(index)) {
+				dropped++;
+			}
+		}
+		if (dropped > 0) {
+			return dropped;
+		}
+		return remove() ? 1 : 0;
+	}
+
+	public void sync() {
+		if (channel == null || (!dirty && !headDirty)) {
+			return;
+		}
+		try {
+			skipTombstones();
+			if (count == 0 && claimed == 0 && end > HEADER) {
+				// everything is consumed, start over at the beginning
+				channel.truncate(HEADER);
+				end = HEADER;
+				headDirty = true;
+			}
+			if (headDirty) {
+				writeHeader(head());
+			}
+			channel.force(false);
+			dirty = false;
+			headDirty = false;
+			if (head() > COMPACT_THRESHOLD && head() - HEADER > end / 2) {
+				compact();
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public int bytes() {
+		return bytes;
+	}
+
+	public void close() {
+		if (channel == null) {
+			return;
+		}
+		sync();
+		try {
+			channel.close();
+		} catch (IOException e) {
+			// ignored
+		}
+		channel = null;
+		claimed = 0;
+	}
+
+	private long head() {
+		return count > 0 ? positions[first] : end;
+	}
+
+	private long scan(long head, long length) throws IOException {
+		channel.position(head);
+		DataInputStream in = new DataInputStream(new BufferedInputStream(
+				Channels.newInputStream(channel), 64 * 1024));
+		long pos = head;
+		try {
+			while (pos + 2 < length) {
+				int hitLength = in.readUnsignedShort();
+				if (hitLength == 0 || pos + 2 + hitLength > length) {
+					break;
+				}
+				byte type = in.readByte();
+				if (in.skipBytes(hitLength - 1) != hitLength - 1) {
+					break;
+				}
+				add(pos, hitLength, type);
+				if (type != TOMBSTONE) {
+					size++;
+					bytes += hitLength + 2;
+				}
+				pos += hitLength + 2;
+			}
+		} catch (EOFException e) {
+			// cut off entry, ends the scan
+		}
+		return pos;
+	}
+
+	private void compact() throws IOException {
+		long head = head();
+		File compacted = new File(file.getPath() + ".tmp");
+		FileChannel out = FileChannel.open(compacted.toPath(),
+				StandardOpenOption.READ, StandardOpenOption.WRITE,
+				StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+		try {
+			header.clear();
+			header.putInt(MAGIC).putLong(HEADER).flip();
+			while (header.hasRemaining()) {
+				out.write(header);
+			}
+			long pos = head;
+			while (pos < end) {
+				pos += channel.transferTo(pos, end - pos, out);
+			}
+			out.force(false);
+		} finally {
+			out.close();
+		}
+		Files.move(compacted.toPath(), file.toPath(),
+				StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+		channel.close();
+		channel = FileChannel.open(file.toPath(), StandardOpenOption.READ,
+				StandardOpenOption.WRITE);
+		long shift = head - HEADER;
+		for (int i = 0; i < count; i++) {
+			positions[(first + i) % positions.length] -= shift;
+		}
+		end -= shift;
+	}
+
+	private void removeHead() {
+		skipTombstones();
+		size--;
+		bytes -= lengths[first] + 2;
+		poll();
+	}
+
+	private void skipTombstones() {
+		while (count > 0 && types[first] == TOMBSTONE) {
+			poll();
+		}
+	}
+
+	private boolean drop(int index) {
+		if (!writeByte(positions[index] + 2, TOMBSTONE)) {
+			return false;
+		}
+		types[index] = TOMBSTONE;
+		size--;
+		bytes -= lengths[index] + 2;
+		return true;
+	}
+
+	private void add(long position, int length, byte type) {
+		if (count == positions.length) {
+			long[] newPositions = new long[count * 2];
+			int[] newLengths = new int[count * 2];
+			byte[] newTypes = new byte[count * 2];
+			for (int i = 0; i < count; i++) {
+				int index = (first + i) % positions.length;
+				newPositions[i] = positions[index];
+				newLengths[i] = lengths[index];
+				newTypes[i] = types[index];
+			}
+			positions = newPositions;
+			lengths = newLengths;
+			types = newTypes;
+			first = 0;
+		}
+		int index = (first + count) % positions.length;
+		positions[index] = position;
+		lengths[index] = length;
+		types[index] = type;
+		count++;
+	}
+
+	private void poll() {
+		first = (first + 1) % positions.length;
+		count--;
+		headDirty = true;
+	}
+
+	private boolean writeByte(long position, byte value) {
+		one.clear();
+		one.put(value).flip();
+		try {
+			channel.write(one, position);
+			dirty = true;
+			return true;
+		} catch (IOException e) {
+			e.printStackTrace();
+			return false;
+		}
+	}
+
+	private void writeHeader(long head) throws IOException {
+		header.clear();
+		header.putInt(MAGIC).putLong(head).flip();
+		long pos = 0;
+		while (header.hasRemaining()) {
+			pos += channel.write(header, pos);
+		}
+	}
+
+	private void readFully(ByteBuffer buffer, long position) throws IOException {
+		while (buffer.hasRemaining()) {
+			int n = channel.read(buffer, position);
+			if (n < 0) {
+				throw new EOFException();
+			}
+			position += n;
+		}
+	}
+}
@@ -0,0 +1,132 @@
+/*************************************************************************
+* Copyright 2010 Gorkem Ercan
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*
+**************************************************************************/
+package gercan.jme.analytics.se;
+
+import gercan.jme.analytics.HitTransport;
+import gercan.jme.analytics.HttpStatusException;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+
+/**
+ * Java SE transport on {@link HttpClient}. The client keeps the
+ * connections alive so consecutive hits do not pay for a new connection.
+ * <p>
+ * Requests are blocking like the {@link HitTransport} contract asks, the
+ * calling thread waits for the response. The tracker sends one request at
+ * a time from dispatching and one from the immediate mode thread. To carry
+ * many hits per request use the batch dispatch of the tracker.
+ * </p>
+ *
+ * @author Gorkem Ercan
+ *
+ */
+public final class HttpClientHitTransport implements HitTransport {
+
+	private final String endpoint;
+	private HttpClient client;
+	private Duration connectTimeout;
+	private Duration readTimeout;
+
+	/**
+	 * @param endpoint scheme, host and port that replace the ones of the
+	 *            tracking urls, for example <code>http://relay:8080</code>,
+	 *            or null to send to the urls as they are
+	 */
+	public HttpClientHitTransport(String endpoint) {
+		this.endpoint = endpoint;
+	}
+
+	public synchronized void setTimeouts(int connectTimeout, int readTimeout) {
+		this.connectTimeout = connectTimeout > 0 ? Duration
+				.ofMillis(connectTimeout) : null;
+		this.readTimeout = readTimeout > 0 ? Duration.ofMillis(readTimeout)
+				: null;
+		// the connect timeout is fixed when the client is built
+		client = null;
+	}
+
+	public void send(String url, String userAgent) throws IOException {
+		execute(request(url, userAgent).GET().build(),
+				HttpResponse.BodyHandlers.discarding());
+	}
+
+	public byte[] post(String url, byte[] body, String userAgent)
+			throws IOException {
+		HttpRequest request = request(url, userAgent).header("Content-Type",
+				"text/plain").POST(HttpRequest.BodyPublishers.ofByteArray(body))
+				.build();
+		return execute(request, HttpResponse.BodyHandlers.ofByteArray());
+	}
+
+	private HttpRequest.Builder request(String url, String userAgent) {
+		HttpRequest.Builder request = HttpRequest.newBuilder(URI
+				.create(rewrite(url)));
+		synchronized (this) {
+			if (readTimeout != null) {
+				request.timeout(readTimeout);
+			}
+		}
+		if (userAgent != null) {
+			request.header("User-Agent", userAgent);
+		}
+		return request;
+	}
+
+	private <T> T execute(HttpRequest request,
+			HttpResponse.BodyHandler<T> handler) throws IOException {
+		HttpClient c;
+		synchronized (this) {
+			c = client();
+		}
+		try {
+			HttpResponse<T> response = c.send(request, handler);
+			if (response.statusCode() != 200) {
+				throw new HttpStatusException(response.statusCode());
+			}
+			return response.body();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Request interrupted");
+		}
+	}
+
+	private HttpClient client() {
+		if (client == null) {
+			HttpClient.Builder builder = HttpClient.newBuilder().version(
+					HttpClient.Version.HTTP_1_1);
+			if (connectTimeout != null) {
+				builder.connectTimeout(connectTimeout);
+			}
+			client = builder.build();
+		}
+		return client;
+	}
+
+	private String rewrite(String url) {
+		if (endpoint == null) {
+			return url;
+		}
+		int path = url.indexOf('/', url.indexOf("//") + 2);
+		return endpoint + (path < 0 ? "/" : url.substring(path));
+	}
+}
@@ -16,6 +16,8 @@
 **************************************************************************/
 package gercan.jme.analytics;
 
+import java.util.Vector;
+
 import net.sourceforge.floggy.persistence.FloggyException;
 import net.sourceforge.floggy.persistence.ObjectSet;
 import net.sourceforge.floggy.persistence.Persistable;
@@ -44,20 +46,29 @@ final /*package*/ class AnalyticsDataPersistenceUtils {
 		}	
 	}
 
-	public static ObjectSet getEventDataSet() {
-		PersistableManager pm = PersistableManager.getInstance();
+	/**
+	 * Reads the urls of the {@link EventData} objects stored by the versions
+	 * that did not use the {@link HitJournal}.
+	 * 
+	 * @return vector of url strings, never null
+	 */
+	public static Vector readEventDataUrls() {
+		Vector urls = new Vector();
 		try {
-			return pm.find(EventData.class, null, null, true);
+			PersistableManager pm = PersistableManager.getInstance();
+			ObjectSet set = pm.find(EventData.class, null, null, true);
+			for (int i = 0; i < set.size(); i++) {
+				urls.addElement(((EventData) set.get(i)).getUrl());
+			}
 		} catch (FloggyException e) {
 			e.printStackTrace();
-			return null;
 		}
+		return urls;
 	}
 	
-	public static void deleteData(Persistable data){
+	public static void deleteEventData() {
 		try {
-			PersistableManager pm = PersistableManager.getInstance();
-			pm.delete(data);
+			PersistableManager.getInstance().deleteAll(EventData.class);
 		} catch (FloggyException e) {
 			//ignored
 		}
@@ -0,0 +1,99 @@
+/*************************************************************************
+* Copyright 2010 Gorkem Ercan
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*
+**************************************************************************/
+package gercan.jme.analytics;
+
+import java.util.Random;
+
+/**
+ * Decides when the next dispatch attempt can be made after failures. Each
+ * consecutive failure doubles the wait, starting from the base backoff up to
+ * the maximum backoff, with a random jitter of +/-50%. After the failure
+ * threshold is reached the breaker opens and no attempts are allowed for the
+ * open duration. Then a single probe is allowed, a success closes the
+ * breaker, a failure opens it again.
+ *
+ * @author Gorkem Ercan
+ *
+ */
+final /*package*/ class CircuitBreaker {
+	private final Random random = new Random();
+	private long baseBackoff;
+	private long maxBackoff;
+	private int failureThreshold;
+	private long openDuration;
+
+	private int consecutiveFailures;
+	private long nextAttemptTime;
+
+	CircuitBreaker(long baseBackoff, long maxBackoff, int failureThreshold,
+			long openDuration) {
+		this.baseBackoff = baseBackoff;
+		this.maxBackoff = maxBackoff;
+		this.failureThreshold = failureThreshold;
+		this.openDuration = openDuration;
+	}
+
+	synchronized void setBackoff(long baseBackoff, long maxBackoff) {
+		this.baseBackoff = baseBackoff;
+		this.maxBackoff = maxBackoff;
+	}
+
+	synchronized void setThreshold(int failureThreshold, long openDuration) {
+		this.failureThreshold = failureThreshold;
+		this.openDuration = openDuration;
+	}
+
+	/**
+	 * @return milliseconds to wait before the next attempt, 0 if an attempt
+	 *         can be made now
+	 */
+	synchronized long delay(long now) {
+		return nextAttemptTime > now ? nextAttemptTime - now : 0;
+	}
+
+	/**
+	 * @return true if the breaker is open, the next attempt is a probe
+	 */
+	synchronized boolean isOpen() {
+		return failureThreshold > 0 && consecutiveFailures >= failureThreshold;
+	}
+
+	synchronized void onSuccess() {
+		consecutiveFailures = 0;
+		nextAttemptTime = 0;
+	}
+
+	synchronized void onFailure(long now) {
+		consecutiveFailures++;
+		if (failureThreshold > 0 && consecutiveFailures >= failureThreshold) {
+			nextAttemptTime = now + openDuration;
+			return;
+		}
+		long wait = baseBackoff;
+		for (int i = 1; i < consecutiveFailures && wait < maxBackoff; i++) {
+			wait *= 2;
+		}
+		if (wait > maxBackoff) {
+			wait = maxBackoff;
+		}
+		if (wait > 0) {
+			// jitter between 50% and 150% of the wait
+			wait = wait / 2 + (random.nextLong() & Long.MAX_VALUE) % (wait + 1);
+		}
+		nextAttemptTime = now + wait;
+	}
+}
@@ -0,0 +1,283 @@
+/*************************************************************************
+* Copyright 2010 Gorkem Ercan
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*
+**************************************************************************/
+package gercan.jme.analytics;
+
+import javax.microedition.rms.RecordEnumeration;
+import javax.microedition.rms.RecordStore;
+import javax.microedition.rms.RecordStoreException;
+
+/**
+ * <p>
+ * Remembers, in a single small record, which stored hits the dispatching
+ * has sent since the lanes were synced and which ones are being sent, so
+ * that after the application is killed the tracker neither sends the
+ * acknowledged hits again nor loses track of the attempts of the others.
+ * The lanes are synced in groups, the record is what makes the
+ * acknowledgements in between durable.
+ * </p>
+ * <p>
+ * The record is written once before each request, it carries the hits
+ * claimed for the request and the hits acknowledged before it, and once
+ * after the last acknowledgement of a dispatch. For each lane it holds
+ * two runs of hits taken from the head of the lane: the acknowledged
+ * ones, then the ones in flight. A run is a count and the fingerprints of
+ * its first and last hit, the recovery trusts a run only if both match
+ * the stored hits, so a record that is older than the head of the lane is
+ * ignored. Record layout:
+ * <pre>
+ * lane{3} : acknowledged(int) first(int) last(int)
+ *           inFlight(int) first(int) last(int)
+ * </pre>
+ * </p>
+ * The record is cleared before the lanes are synced, it never holds a run
+ * the lanes have already consumed.
+ *
+ * @author Gorkem Ercan
+ *
+ */
+final /*package*/ class DispatchCheckpoint {
+	private static final int LANES = 3;
+	private static final int RECORD_SIZE = LANES * 24;
+
+	private final String name;
+	private RecordStore store;
+	private int recordId;
+	private final byte[] record = new byte[RECORD_SIZE];
+	/*
+	 * runs of each lane, acknowledged since the lane was synced and in
+	 * flight
+	 */
+	private final int[] acknowledged = new int[LANES];
+	private final int[] acknowledgedFirst = new int[LANES];
+	private final int[] acknowledgedLast = new int[LANES];
+	private final int[] inFlight = new int[LANES];
+	private final int[] inFlightFirst = new int[LANES];
+	private final int[] inFlightLast = new int[LANES];
+	/*
+	 * runs changed since the record was written
+	 */
+	private boolean dirty;
+
+	DispatchCheckpoint(String name) {
+		this.name = name;
+	}
+
+	/**
+	 * Opens the record store and reads the runs written last.
+	 */
+	synchronized void open() {
+		try {
+			store = RecordStore.openRecordStore(name, true);
+			RecordEnumeration e = store.enumerateRecords(null, null, false);
+			if (e.hasNextElement()) {
+				recordId = e.nextRecordId();
+				byte[] data = store.getRecord(recordId);
+				if (data != null && data.length >= RECORD_SIZE) {
+					for (int i = 0, off = 0; i < LANES; i++, off += 24) {
+						acknowledged[i] = readInt(data, off);
+						acknowledgedFirst[i] = readInt(data, off + 4);
+						acknowledgedLast[i] = readInt(data, off + 8);
+						inFlight[i] = readInt(data, off + 12);
+						inFlightFirst[i] = readInt(data, off + 16);
+						inFlightLast[i] = readInt(data, off + 20);
+					}
+				}
+			}
+			e.destroy();
+		} catch (RecordStoreException e) {
+			e.printStackTrace();
+			store = null;
+		}
+	}
+
+	/**
+	 * Claims the acknowledged hits of the lane found in the record, if
+	 * they are still at its head.
+	 *
+	 * @param lane priority of the lane
+	 * @param hits store of the lane
+	 * @return true if the hits are claimed, the caller commits them
+	 */
+	synchronized boolean claimAcknowledged(int lane, HitStore hits) {
+		return claim(hits, acknowledged[lane], acknowledgedFirst[lane],
+				acknowledgedLast[lane]) != null;
+	}
+
+	/**
+	 * Claims the hits of the lane that were in flight, if they are at its
+	 * head once the acknowledged ones are committed.
+	 *
+	 * @param lane priority of the lane
+	 * @param hits store of the lane
+	 * @return payloads of the claimed hits or null
+	 */
+	synchronized byte[][] claimInFlight(int lane, HitStore hits) {
+		return claim(hits, inFlight[lane], inFlightFirst[lane],
+				inFlightLast[lane]);
+	}
+
+	private static byte[][] claim(HitStore hits, int count, int first,
+			int last) {
+		if (count <= 0 || count > hits.size()) {
+			return null;
+		}
+		byte[] head = hits.peek();
+		if (head == null || fingerprint(head) != first) {
+			return null;
+		}
+		byte[][] claimed = new byte[count][];
+		for (int i = 0; i < count; i++) {
+			claimed[i] = hits.claim();
+			if (claimed[i] == null) {
+				hits.release();
+				return null;
+			}
+		}
+		if (fingerprint(claimed[count - 1]) != last) {
+			hits.release();
+			return null;
+		}
+		return claimed;
+	}
+
+	/**
+	 * Adds a hit to the ones about to be sent, they are recorded by the
+	 * next {@link #write()}.
+	 *
+	 * @param lane priority of the lane the hit is claimed from
+	 * @param hit payload of the hit
+	 */
+	synchronized void claimed(int lane, byte[] hit) {
+		int fingerprint = fingerprint(hit);
+		if (inFlight[lane] == 0) {
+			inFlightFirst[lane] = fingerprint;
+		}
+		inFlight[lane]++;
+		inFlightLast[lane] = fingerprint;
+		dirty = true;
+	}
+
+	/**
+	 * Moves the hits in flight to the acknowledged ones. Hits that are
+	 * consumed without an acknowledgement, like the ones moved to the
+	 * dead letters, are acknowledged too once the change is durable.
+	 */
+	synchronized void acknowledge() {
+		for (int i = 0; i < LANES; i++) {
+			if (inFlight[i] == 0) {
+				continue;
+			}
+			if (acknowledged[i] == 0) {
+				acknowledgedFirst[i] = inFlightFirst[i];
+			}
+			acknowledged[i] += inFlight[i];
+			acknowledgedLast[i] = inFlightLast[i];
+			inFlight[i] = 0;
+		}
+		dirty = true;
+	}
+
+	/**
+	 * Forgets the hits in flight, after they are given back to their lane.
+	 */
+	synchronized void release() {
+		for (int i = 0; i < LANES; i++) {
+			inFlight[i] = 0;
+		}
+		dirty = true;
+	}
+
+	/**
+	 * Forgets the acknowledged hits and writes the record, before the lanes
+	 * are synced. A run left on the record after the sync could match
+	 * other hits with the same payload.
+	 */
+	synchronized void clearAcknowledged() {
+		for (int i = 0; i < LANES; i++) {
+			if (acknowledged[i] != 0) {
+				acknowledged[i] = 0;
+				dirty = true;
+			}
+		}
+		write();
+	}
+
+	/**
+	 * Forgets all hits and writes the record.
+	 */
+	synchronized void clear() {
+		for (int i = 0; i < LANES; i++) {
+			acknowledged[i] = 0;
+			inFlight[i] = 0;
+		}
+		dirty = true;
+		write();
+	}
+
+	/**
+	 * Writes the record if the runs have changed.
+	 */
+	synchronized void write() {
+		if (!dirty || store == null) {
+			return;
+		}
+		dirty = false;
+		for (int i = 0, off = 0; i < LANES; i++, off += 24) {
+			writeInt(acknowledged[i], off);
+			writeInt(acknowledgedFirst[i], off + 4);
+			writeInt(acknowledgedLast[i], off + 8);
+			writeInt(inFlight[i], off + 12);
+			writeInt(inFlightFirst[i], off + 16);
+			writeInt(inFlightLast[i], off + 20);
+		}
+		try {
+			if (recordId == 0) {
+				recordId = store.addRecord(record, 0, RECORD_SIZE);
+			} else {
+				store.setRecord(recordId, record, 0, RECORD_SIZE);
+			}
+		} catch (RecordStoreException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Hashes the payload without the attempts byte, which changes while the
+	 * hit waits.
+	 */
+	private static int fingerprint(byte[] hit) {
+		int h = hit.length;
+		for (int i = 0; i < hit.length; i++) {
+			if (i != Hit.ATTEMPTS_OFFSET) {
+				h = 31 * h + hit[i];
+			}
+		}
+		return h;
+	}
+
+	private void writeInt(int v, int off) {
+		record[off] = (byte) (v >>> 24);
+		record[off + 1] = (byte) (v >>> 16);
+		record[off + 2] = (byte) (v >>> 8);
+		record[off + 3] = (byte) v;
+	}
+
+	private static int readInt(byte[] b, int off) {
+		return ((b[off] & 0xff) << 24) | ((b[off + 1] & 0xff) << 16)
+				| ((b[off + 2] & 0xff) << 8) | (b[off + 3] & 0xff);
+	}
+}
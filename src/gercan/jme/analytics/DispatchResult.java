@@ -0,0 +1,78 @@
+/*************************************************************************
+* Copyright 2010 Gorkem Ercan
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*
+**************************************************************************/
+package gercan.jme.analytics;
+
+/**
+ * Outcome of a {@link GoogleAnalytics#dispatch(int)} or
+ * {@link GoogleAnalytics#dispatchAll(long)} call.
+ *
+ * @author Gorkem Ercan
+ *
+ */
+public final class DispatchResult {
+	private final int sent;
+	private final int failed;
+	private final int remaining;
+	private final long retryAfter;
+
+	DispatchResult(int sent, int failed, int remaining, long retryAfter) {
+		this.sent = sent;
+		this.failed = failed;
+		this.remaining = remaining;
+		this.retryAfter = retryAfter;
+	}
+
+	/**
+	 * Returns the number of hits that were sent and removed from the store
+	 * @return sent hits
+	 */
+	public int getSent() {
+		return sent;
+	}
+
+	/**
+	 * Returns the number of hits that could not be sent. Hits rejected by
+	 * the server are moved to the dead letters, the others are kept on the
+	 * store.
+	 * @return failed hits
+	 */
+	public int getFailed() {
+		return failed;
+	}
+
+	/**
+	 * Returns the number of hits that are still waiting to be dispatched
+	 * @return remaining hits
+	 */
+	public int getRemaining() {
+		return remaining;
+	}
+
+	/**
+	 * Returns how long to wait before dispatching again after failures. 
+	 * Dispatch calls made earlier than this do not send anything.
+	 * @return milliseconds to wait, 0 if dispatching can continue
+	 */
+	public long getRetryAfter() {
+		return retryAfter;
+	}
+
+	public String toString() {
+		return "sent=" + sent + " failed=" + failed + " remaining=" + remaining
+				+ " retryAfter=" + retryAfter;
+	}
+}
@@ -0,0 +1,213 @@
+/*************************************************************************
+* Copyright 2010 Gorkem Ercan
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*
+**************************************************************************/
+package gercan.jme.analytics;
+
+/**
+ * <p>
+ * Dispatches the stored hits on a background thread without the application
+ * asking for it. A dispatch starts when the number of stored hits reaches
+ * the high-water mark, when the oldest stored hit reaches the maximum age or
+ * when a critical hit is stored.
+ * Each dispatch is a burst that sends as many hits as fit into the time
+ * budget at the observed latency, so that the radio is woken up rarely.
+ * </p>
+ * <p>
+ * When bursts fail or the average latency per hit is high the maximum age
+ * is stretched up to {@link #MAX_BACKOFF_FACTOR} times, it shrinks back as
+ * bursts succeed.
+ * </p>
+ *
+ * @author Gorkem Ercan
+ *
+ */
+final /*package*/ class DispatchScheduler implements Runnable {
+	static final int MAX_BACKOFF_FACTOR = 8;
+	/*
+	 * average latency per hit above which the network is considered slow
+	 */
+	private static final long SLOW_LATENCY = 3000L;
+
+	private final GoogleAnalytics tracker;
+	private int highWaterMark;
+	private long maxAge;
+	private int maxBurst;
+	private long burstBudget;
+
+	private Thread thread;
+	private boolean running;
+	private boolean wakeUp;
+	/*
+	 * a critical hit is waiting, dispatch without waiting for the age
+	 */
+	private boolean urgent;
+	private long oldestHitTime;
+	private long latency;
+	private int backoffFactor = 1;
+
+	DispatchScheduler(GoogleAnalytics tracker, int maxBurst, long burstBudget) {
+		this.tracker = tracker;
+		this.maxBurst = maxBurst;
+		this.burstBudget = burstBudget;
+	}
+
+	/**
+	 * Starts or stops the scheduler.
+	 *
+	 * @param highWaterMark stored hits that start a dispatch, 0 for none
+	 * @param maxAge age of the oldest hit that starts a dispatch, 0 for
+	 *            none
+	 */
+	synchronized void configure(int highWaterMark, long maxAge) {
+		this.highWaterMark = highWaterMark;
+		this.maxAge = maxAge;
+		running = highWaterMark > 0 || maxAge > 0;
+		if (running && thread == null) {
+			thread = new Thread(this);
+			thread.setPriority(Thread.MIN_PRIORITY);
+			thread.start();
+		}
+		notify();
+	}
+
+	synchronized void setBurst(int maxBurst, long burstBudget) {
+		this.maxBurst = maxBurst;
+		this.burstBudget = burstBudget;
+	}
+
+	/**
+	 * Called after hits are stored.
+	 *
+	 * @param storedHits number of the stored hits
+	 * @param critical true if a critical hit was stored
+	 */
+	synchronized void hitStored(int storedHits, boolean critical) {
+		if (storedHits == 1 || oldestHitTime == 0) {
+			oldestHitTime = System.currentTimeMillis();
+		}
+		if (critical) {
+			urgent = true;
+		}
+		if (running
+				&& (critical || (highWaterMark > 0 && storedHits >= highWaterMark))) {
+			wakeUp = true;
+			notify();
+		}
+	}
+
+	public void run() {
+		while (true) {
+			int burst;
+			long budget;
+			boolean critical;
+			synchronized (this) {
+				if (!running) {
+					thread = null;
+					return;
+				}
+				long wait = nextCheck(System.currentTimeMillis());
+				if (!wakeUp && wait > 0) {
+					try {
+						wait(wait);
+					} catch (InterruptedException e) {
+						// ignored
+					}
+					continue;
+				}
+				wakeUp = false;
+				critical = urgent;
+				urgent = false;
+				budget = burstBudget;
+				burst = maxBurst;
+				if (latency > 0 && budget / latency < burst) {
+					burst = (int) Math.max(1, budget / latency);
+				}
+			}
+			int stored = tracker.getStoredHitCount();
+			// the tracker is called outside the lock, it calls hitStored
+			// with its own lock held
+			long oldest = stored == 0 ? 0 : tracker.getOldestHitTime();
+			synchronized (this) {
+				if (stored == 0) {
+					oldestHitTime = 0;
+				} else if (oldestHitTime == 0) {
+					// hits stored on an earlier run
+					oldestHitTime = oldest > 0 ? oldest : System
+							.currentTimeMillis();
+				}
+			}
+			if (stored == 0 || !(critical || isDue(stored))) {
+				continue;
+			}
+			long start = System.currentTimeMillis();
+			DispatchResult result = tracker.dispatchBurst(burst, start
+					+ budget);
+			long now = System.currentTimeMillis();
+			long oldestLeft = result.getRemaining() > 0
+					&& result.getSent() > 0 ? tracker.getOldestHitTime() : 0;
+			synchronized (this) {
+				int attempts = result.getSent() + result.getFailed();
+				if (attempts > 0) {
+					long perHit = (now - start) / attempts;
+					latency = latency == 0 ? perHit : (latency * 3 + perHit) / 4;
+				}
+				if (result.getFailed() > 0 || latency > SLOW_LATENCY) {
+					backoffFactor = Math.min(backoffFactor * 2,
+							MAX_BACKOFF_FACTOR);
+				} else if (backoffFactor > 1) {
+					backoffFactor /= 2;
+				}
+				if (result.getRemaining() == 0) {
+					oldestHitTime = 0;
+				} else if (result.getSent() > 0) {
+					// count from now if the age of the remaining hits is
+					// unknown
+					oldestHitTime = oldestLeft > 0 && oldestLeft <= now
+							? oldestLeft : now;
+				} else {
+					// nothing went out, wait before trying again
+					oldestHitTime = now;
+					if (result.getRetryAfter() > 0) {
+						oldestHitTime += result.getRetryAfter();
+					}
+				}
+			}
+		}
+	}
+
+	private synchronized boolean isDue(int stored) {
+		if (highWaterMark > 0 && stored >= highWaterMark
+				&& backoffFactor == 1) {
+			return true;
+		}
+		return nextCheck(System.currentTimeMillis()) == 0;
+	}
+
+	/**
+	 * @return milliseconds until the oldest hit is due, 0 if it is due now
+	 */
+	private long nextCheck(long now) {
+		if (maxAge <= 0) {
+			// only the high-water mark starts a dispatch
+			return Long.MAX_VALUE / 2;
+		}
+		if (oldestHitTime == 0) {
+			return maxAge;
+		}
+		long due = oldestHitTime + maxAge * backoffFactor;
+		return due > now ? due - now : 0;
+	}
+}
@@ -0,0 +1,138 @@
+/*************************************************************************
+* Copyright 2010 Gorkem Ercan
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*
+**************************************************************************/
+package gercan.jme.analytics;
+
+import java.util.Hashtable;
+
+/**
+ * Bounded LRU cache of the url encoded forms of strings. Strings that are
+ * registered with {@link #pin(String)} stay on the cache and do not count
+ * against its size.
+ *
+ * @author Gorkem Ercan
+ *
+ */
+final /*package*/ class EncodedCache {
+
+	private static final class Entry {
+		String raw;
+		char[] encoded;
+		boolean pinned;
+		Entry prev;
+		Entry next;
+	}
+
+	private final Hashtable entries = new Hashtable();
+	/*
+	 * most recently used unpinned entry is head.next, least recently used
+	 * is head.prev
+	 */
+	private final Entry head = new Entry();
+	private int maxSize;
+	private int size;
+
+	EncodedCache(int maxSize) {
+		this.maxSize = maxSize;
+		head.prev = head;
+		head.next = head;
+	}
+
+	/**
+	 * Appends the encoded form of the string to the buffer, encoding and
+	 * caching it if it is not on the cache.
+	 */
+	synchronized void encode(String raw, StringBuffer buf) {
+		Entry e = (Entry) entries.get(raw);
+		if (e != null) {
+			if (!e.pinned) {
+				unlink(e);
+				linkFirst(e);
+			}
+			buf.append(e.encoded);
+			return;
+		}
+		int start = buf.length();
+		UrlEncoder.encode(raw, buf);
+		if (maxSize > 0) {
+			e = newEntry(raw, buf, start);
+			entries.put(raw, e);
+			linkFirst(e);
+			size++;
+			trim();
+		}
+	}
+
+	/**
+	 * Adds the string to the cache permanently.
+	 */
+	synchronized void pin(String raw) {
+		Entry e = (Entry) entries.get(raw);
+		if (e != null) {
+			if (!e.pinned) {
+				unlink(e);
+				size--;
+				e.pinned = true;
+			}
+			return;
+		}
+		StringBuffer buf = new StringBuffer(raw.length() + 16);
+		UrlEncoder.encode(raw, buf);
+		e = newEntry(raw, buf, 0);
+		e.pinned = true;
+		entries.put(raw, e);
+	}
+
+	synchronized void setMaxSize(int maxSize) {
+		this.maxSize = maxSize;
+		trim();
+	}
+
+	synchronized int getMaxSize() {
+		return maxSize;
+	}
+
+	private void trim() {
+		while (size > maxSize) {
+			Entry eldest = head.prev;
+			unlink(eldest);
+			entries.remove(eldest.raw);
+			size--;
+		}
+	}
+
+	private static Entry newEntry(String raw, StringBuffer buf, int start) {
+		Entry e = new Entry();
+		e.raw = raw;
+		e.encoded = new char[buf.length() - start];
+		buf.getChars(start, buf.length(), e.encoded, 0);
+		return e;
+	}
+
+	private void linkFirst(Entry e) {
+		e.prev = head;
+		e.next = head.next;
+		head.next.prev = e;
+		head.next = e;
+	}
+
+	private static void unlink(Entry e) {
+		e.prev.next = e.next;
+		e.next.prev = e.prev;
+		e.prev = null;
+		e.next = null;
+	}
+}
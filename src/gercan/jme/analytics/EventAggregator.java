@@ -0,0 +1,118 @@
+/*************************************************************************
+* Copyright 2010 Gorkem Ercan
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*
+**************************************************************************/
+package gercan.jme.analytics;
+
+import java.util.Enumeration;
+import java.util.Hashtable;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.Vector;
+
+/**
+ * Collapses the events with the same category, action and label that are
+ * tracked within a time window into a single hit. The hit carries the sum
+ * or the maximum of the values and the number of occurrences. The window
+ * starts with the first event after a flush, when it ends all collected
+ * events are submitted to the tracker.
+ *
+ * @author Gorkem Ercan
+ *
+ */
+final /*package*/ class EventAggregator {
+
+	private final GoogleAnalytics tracker;
+	private final Hashtable pending = new Hashtable();
+	private long window;
+	private int function;
+	private final Timer timer;
+	private TimerTask flushTask;
+
+	EventAggregator(GoogleAnalytics tracker, Timer timer) {
+		this.tracker = tracker;
+		this.timer = timer;
+	}
+
+	synchronized void configure(long window, int function) {
+		this.window = window;
+		this.function = function;
+	}
+
+	/**
+	 * Adds the event to the current window. Events of different web
+	 * properties or priorities are not collapsed.
+	 *
+	 * @param event new event hit, it is kept if it starts a new collapsed
+	 *            event
+	 * @return false if aggregation is disabled, the event should be
+	 *         submitted as is
+	 */
+	synchronized boolean add(Hit event) {
+		if (window <= 0) {
+			return false;
+		}
+		String key = event.category + '\n' + event.action + '\n'
+				+ (event.label == null ? "\0" : event.label) + '\n'
+				+ (event.account == null ? "" : event.account) + '\n'
+				+ event.priority;
+		Hit hit = (Hit) pending.get(key);
+		int value = event.value;
+		if (hit == null) {
+			pending.put(key, event);
+		} else {
+			hit.count++;
+			if (value > -1) {
+				if (hit.value < 0) {
+					hit.value = value;
+				} else if (function == GoogleAnalytics.AGGREGATE_MAX) {
+					hit.value = Math.max(hit.value, value);
+				} else {
+					hit.value += value;
+				}
+			}
+		}
+		if (flushTask == null) {
+			flushTask = new GuardedTask() {
+				void runTask() {
+					flush();
+				}
+			};
+			timer.schedule(flushTask, window);
+		}
+		return true;
+	}
+
+	/**
+	 * Submits the collected events to the tracker.
+	 */
+	void flush() {
+		Vector hits;
+		synchronized (this) {
+			if (flushTask != null) {
+				flushTask.cancel();
+				flushTask = null;
+			}
+			hits = new Vector(pending.size());
+			for (Enumeration e = pending.elements(); e.hasMoreElements();) {
+				hits.addElement(e.nextElement());
+			}
+			pending.clear();
+		}
+		for (int i = 0; i < hits.size(); i++) {
+			tracker.submit((Hit) hits.elementAt(i));
+		}
+	}
+}
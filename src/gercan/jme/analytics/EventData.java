@@ -18,7 +18,9 @@ package gercan.jme.analytics;
 
 import net.sourceforge.floggy.persistence.Persistable;
 /**
- * Persistable object for storing the Event data.
+ * Persistable object for storing the Event data. Events are now queued on
+ * the {@link HitJournal}, this class is only read to move the events stored
+ * by the earlier versions to the journal.
  * 
  * @author Gorkem Ercan
  *
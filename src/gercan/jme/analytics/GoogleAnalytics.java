@@ -16,17 +16,17 @@
 **************************************************************************/
 package gercan.jme.analytics;
 
+import java.util.Hashtable;
 import java.util.Random;
+import java.util.Timer;
+import java.util.Vector;
 
-import javax.microedition.io.Connector;
 import javax.microedition.io.HttpConnection;
 import javax.microedition.lcdui.Canvas;
 import javax.microedition.lcdui.Display;
 import javax.microedition.lcdui.Graphics;
 import javax.microedition.midlet.MIDlet;
 
-import net.sourceforge.floggy.persistence.ObjectSet;
-
 /**
  * <p>
  * The interface for tracking activity within JavaME applications and reporting
@@ -48,9 +48,118 @@ import net.sourceforge.floggy.persistence.ObjectSet;
  * 
  */
 public class GoogleAnalytics {
-	private static final String digits = "0123456789ABCDEF";
+	/**
+	 * Overflow policy for the immediate mode queue: the hit that does not
+	 * fit into the queue is dropped.
+	 */
+	public static final int OVERFLOW_DROP_NEWEST = 0;
+	/**
+	 * Overflow policy for the immediate mode queue: the oldest hit on the
+	 * queue is dropped to make room for the new one.
+	 */
+	public static final int OVERFLOW_DROP_OLDEST = 1;
+	/**
+	 * Overflow policy for the immediate mode queue: the hit that does not
+	 * fit into the queue is stored to be dispatched later with
+	 * {@link GoogleAnalytics#readAndDispatch()}.
+	 */
+	public static final int OVERFLOW_SPILL_TO_STORE = 2;
+	/**
+	 * Eviction policy for the stored hits: the oldest stored hit is dropped
+	 * to make room for the new one.
+	 */
+	public static final int EVICT_DROP_OLDEST = 0;
+	/**
+	 * Eviction policy for the stored hits: the new hit is dropped.
+	 */
+	public static final int EVICT_DROP_NEWEST = 1;
+	/**
+	 * Eviction policy for the stored hits: the oldest stored event is 
+	 * dropped, pageviews are dropped only when there are no events left. 
+	 * User timings are reported as events and count as events here, they
+	 * are dropped once no other events are stored. A new event or timing
+	 * is dropped if there are only pageviews stored. 
+	 */
+	public static final int EVICT_KEEP_PAGEVIEWS = 2;
+	/**
+	 * Eviction policy for the stored hits: every second hit of the oldest
+	 * stored hits is dropped, keeping a sample of the old activity.
+	 */
+	public static final int EVICT_THIN = 3;
+	/**
+	 * Aggregation function for the collapsed events: the values are summed.
+	 */
+	public static final int AGGREGATE_SUM = 0;
+	/**
+	 * Aggregation function for the collapsed events: the largest value is
+	 * kept.
+	 */
+	public static final int AGGREGATE_MAX = 1;
+	/**
+	 * Durability mode: each hit is written to the store before the tracking
+	 * call returns.
+	 */
+	public static final int DURABILITY_EVERY_HIT = 0;
+	/**
+	 * Durability mode: hits are kept in memory and written to the store 
+	 * together. The hits in memory are lost if the application is killed.
+	 */
+	public static final int DURABILITY_GROUP_COMMIT = 1;
+	/**
+	 * Hit priority: high value hits like conversions. They are dispatched 
+	 * ahead of the other hits and evicted last.
+	 */
+	public static final int PRIORITY_CRITICAL = 0;
+	/**
+	 * Hit priority of the pageviews and events tracked without a priority.
+	 */
+	public static final int PRIORITY_NORMAL = 1;
+	/**
+	 * Hit priority: background telemetry. Dispatched behind the other hits 
+	 * and evicted first.
+	 */
+	public static final int PRIORITY_BULK = 2;
+	/**
+	 * Timing aggregation: each ended span is reported as a timing hit.
+	 */
+	public static final int TIMING_EACH = 0;
+	/**
+	 * Timing aggregation: the times are counted into buckets and each 
+	 * bucket is reported once per window with the average of its times.
+	 */
+	public static final int TIMING_BUCKETS = 1;
+	/**
+	 * Timing aggregation: the requested percentiles of the times are 
+	 * reported once per window.
+	 */
+	public static final int TIMING_PERCENTILES = 2;
+
+	private static final int DEFAULT_QUEUE_CAPACITY = 32;
+	private static final int DEFAULT_ENCODING_CACHE_SIZE = 32;
+	private static final int DEFAULT_CONNECT_TIMEOUT = 20000;
+	private static final int DEFAULT_READ_TIMEOUT = 20000;
+	private static final int SYNC_GROUP_SIZE = 16;
+	private static final String JOURNAL_NAME = "gercan.ga.hits";
+	private static final String CRITICAL_JOURNAL_NAME = "gercan.ga.hits.critical";
+	private static final String BULK_JOURNAL_NAME = "gercan.ga.hits.bulk";
+	private static final String DEAD_LETTER_NAME = "gercan.ga.dead";
+	private static final String CHECKPOINT_NAME = "gercan.ga.cursor";
+	private static final int DEFAULT_MAX_ATTEMPTS = 10;
+	private static final long DEFAULT_BASE_BACKOFF = 2000L;
+	private static final long DEFAULT_MAX_BACKOFF = 300000L;
+	private static final int DEFAULT_FAILURE_THRESHOLD = 5;
+	private static final long DEFAULT_OPEN_DURATION = 60000L;
+	private static final int DEFAULT_BURST_SIZE = 100;
+	private static final long DEFAULT_BURST_BUDGET = 30000L;
+	private static final int MAX_PENDING_HITS = 64;
+	private static final int DEFAULT_TIMING_SPANS = 8;
 	/*
-	 * internal instance
+	 * no hits claimed on any lane
+	 */
+	private static final int[] NO_CLAIMS = new int[3];
+	/*
+	 * internal instance, read with the class lock held, CLDC 1.1 predates
+	 * the Java 5 memory model so a volatile does not publish it safely
 	 */
 	private static GoogleAnalytics INSTANCE;
 
@@ -59,29 +168,128 @@ public class GoogleAnalytics {
 	private int screenHeight;
 	private int colorDepth;
 
-	private String rootPath;
+	/*
+	 * built once by the initialization thread, read without locking once
+	 * it is initialized
+	 */
+	private Visit visit;
 	private String userAgent;
 	private String locale;
 	private String hostname;
-	private SessionData session;
 	private boolean immediate;
-	private ObjectSet currentEventSet;
-	private int processedEventIndex;
+	/*
+	 * stored hits, one store per priority
+	 */
+	private HitStore[] lanes = new HitStore[3];
+	/*
+	 * lane weights and the credits of the weighted round robin
+	 */
+	private int[] laneWeights = { 8, 4, 1 };
+	private int[] laneCredits = new int[3];
+	/*
+	 * hits that failed permanently
+	 */
+	private HitStore deadLetters;
+	/*
+	 * hits sent since the lanes were synced and hits being sent, used only
+	 * by the thread holding the dispatchLock
+	 */
+	private DispatchCheckpoint checkpoint = new DispatchCheckpoint(
+			CHECKPOINT_NAME);
+	/*
+	 * hits acknowledged since the dispatching synced the lanes, they are 
+	 * covered by the checkpoint until then
+	 */
+	private int unsyncedHits;
+	private int maxAttempts = DEFAULT_MAX_ATTEMPTS;
+	/*
+	 * guarded by the dataLock, the hits are sampled when they are submitted
+	 */
+	private int pageViewSampleRate = 100;
+	private int eventSampleRate = 100;
+	/*
+	 * single timer thread of the flushes and the request watchdogs, its
+	 * tasks are short guarded tasks
+	 */
+	private final Timer timer = new Timer();
+	private EventAggregator aggregator = new EventAggregator(this, timer);
+	/*
+	 * add the occurrences of a collapsed event to its label
+	 */
+	private boolean eventCountInLabel;
+	/*
+	 * add the number of times to the label of an aggregated timing
+	 */
+	private boolean timingCountInLabel;
+	private TimingRecorder timings = new TimingRecorder(this, timer,
+			DEFAULT_TIMING_SPANS);
+	private HitStage stage = new HitStage(this, timer);
+	private int durability = DURABILITY_EVERY_HIT;
+	private DispatchScheduler scheduler = new DispatchScheduler(this,
+			DEFAULT_BURST_SIZE, DEFAULT_BURST_BUDGET);
+	private CircuitBreaker breaker = new CircuitBreaker(DEFAULT_BASE_BACKOFF,
+			DEFAULT_MAX_BACKOFF, DEFAULT_FAILURE_THRESHOLD,
+			DEFAULT_OPEN_DURATION);
 	private Object dataLock = new Object();
+	private Object dispatchLock = new Object();
+	private HitDispatcher dispatcher;
+	private int maxStoredHits;
+	private int maxStoredBytes;
+	private int evictionPolicy = EVICT_DROP_OLDEST;
+	/*
+	 * stores set before the initialization opened the journals, the hits
+	 * are moved to them when it does
+	 */
+	private HitStore[] pendingLanes = new HitStore[3];
+	private HitStore pendingDeadLetters;
+	private boolean storesOpen;
+	/*
+	 * hits tracked before the initialization finished
+	 */
+	private boolean initialized;
+	private Vector pendingHits = new Vector();
+	private StatsCollector stats = new StatsCollector();
+	private TrackerListener listener;
+	private EncodedCache encodedCache = new EncodedCache(
+			DEFAULT_ENCODING_CACHE_SIZE);
+	private int connectTimeout = DEFAULT_CONNECT_TIMEOUT;
+	private int readTimeout = DEFAULT_READ_TIMEOUT;
+	/*
+	 * guarded by this, a transport set by the application is published to
+	 * the dispatching threads through the lock
+	 */
+	private HitTransport transport = new HttpTransport(timer,
+			DEFAULT_CONNECT_TIMEOUT, DEFAULT_READ_TIMEOUT);
+	/*
+	 * collector that receives the batches, null to send each hit alone
+	 */
+	private String batchEndpoint;
+	private int batchSize;
+	private Random random = new Random();
+	/*
+	 * trackers of the other web properties by their ID
+	 */
+	private Hashtable trackers = new Hashtable();
 	
-	private GoogleAnalytics(String accountId, int screenWidth,
-			int screenHeight, int colorDepth) {
+	private GoogleAnalytics(String accountId, final MIDlet midlet) {
 		this.immediate = false;
 		this.accountId = accountId;
-		this.screenWidth = screenWidth;
-		this.screenHeight = screenHeight;
-		this.colorDepth = colorDepth;
-		initFromSytemProperties();
-		initSessionData();
+		this.dispatcher = new HitDispatcher(this, DEFAULT_QUEUE_CAPACITY,
+				OVERFLOW_DROP_NEWEST);
+		new Thread() {
+			public void run() {
+				initialize(midlet);
+			}
+		}.start();
 	}
 
 	/**
-	 * Factory method that creates the GoogleAnalytics instance.
+	 * Factory method that creates the GoogleAnalytics instance. Returns 
+	 * right away, the session data and the stored hits are loaded on a 
+	 * background thread. Hits tracked until then are kept in memory. The 
+	 * stores, the storage quota and the automatic dispatch can be set 
+	 * right away, they are applied when the loading finishes. Methods that
+	 * read or dispatch the stored hits wait for the loading to finish.
 	 * 
 	 * @param webPropertyID
 	 *            Google analytics web id
@@ -93,38 +301,48 @@ public class GoogleAnalytics {
 	 * @throws IllegalArgumentException
 	 *             if accountId or midlet is null
 	 */
-	public static GoogleAnalytics getInstance(String webPropertyID,
-			MIDlet midlet) {
-
-		synchronized (GoogleAnalytics.class) {
-			if (INSTANCE == null) {
-				if (webPropertyID == null) {
-					throw new IllegalArgumentException(
-							"Account id is mandatory can not be null");
-				}
-				if (midlet == null) {
-					throw new IllegalArgumentException(
-							"Midlet is mandatory can not be null");
-				}
-
-				// a temporary canvas
-				Canvas c = new Canvas() {
-					protected void paint(Graphics arg0) {
-					}
-				};
-				Display display = Display.getDisplay(midlet);
-				int colors = display.numColors();
-				int colorDepth = 1;
-				do {
-					colorDepth++;
-				} while (colors >> colorDepth != 1);
-				INSTANCE = new GoogleAnalytics(webPropertyID, c.getWidth(),
-						c.getHeight(), colorDepth);
+	public static synchronized GoogleAnalytics getInstance(
+			String webPropertyID, MIDlet midlet) {
+		if (INSTANCE == null) {
+			if (webPropertyID == null) {
+				throw new IllegalArgumentException(
+						"Account id is mandatory can not be null");
 			}
+			if (midlet == null) {
+				throw new IllegalArgumentException(
+						"Midlet is mandatory can not be null");
+			}
+			INSTANCE = new GoogleAnalytics(webPropertyID, midlet);
 		}
 		return INSTANCE;
 	}
 
+	/**
+	 * Returns a tracker that reports to another web property ID. Its hits
+	 * share the store, the queue and the dispatching of this instance and 
+	 * follow its configuration. Calls with the same ID return the same 
+	 * tracker, it can be kept to avoid the lookup.
+	 * 
+	 * @param webPropertyID Google analytics web id
+	 * @return tracker of the web property
+	 * @throws IllegalArgumentException if webPropertyID is null
+	 */
+	public PropertyTracker getTracker(String webPropertyID) {
+		if (webPropertyID == null) {
+			throw new IllegalArgumentException(
+					"Account id is mandatory can not be null");
+		}
+		synchronized (trackers) {
+			PropertyTracker tracker = (PropertyTracker) trackers
+					.get(webPropertyID);
+			if (tracker == null) {
+				tracker = new PropertyTracker(this, webPropertyID);
+				trackers.put(webPropertyID, tracker);
+			}
+			return tracker;
+		}
+	}
+
 	/**
 	 * This is the standard unit of measure for a traditional web site, It is
 	 * recommended that you trigger at least one pageview at application load to
@@ -137,32 +355,39 @@ public class GoogleAnalytics {
 	 *            descriptive name for the current view
 	 */
 	public void trackPageView(String url) {
+		trackPageView(null, url, PRIORITY_NORMAL);
+	}
+
+	/**
+	 * Tracks a pageview with the given priority, see 
+	 * {@link #trackPageView(String)} and {@link #setLaneWeights(int, int, int)}.
+	 * 
+	 * @param url
+	 *            descriptive name for the current view
+	 * @param priority
+	 *            {@link #PRIORITY_CRITICAL}, {@link #PRIORITY_NORMAL} or 
+	 *            {@link #PRIORITY_BULK}
+	 * @throws IllegalArgumentException if the priority is unknown
+	 */
+	public void trackPageView(String url, int priority) {
+		trackPageView(null, url, priority);
+	}
+
+	/**
+	 * @param account web property ID, null for the ID of this instance
+	 */
+	/*package*/ void trackPageView(String account, String url, int priority) {
+		checkPriority(priority);
 		if (url == null)
 			return;
 
 		if (url.charAt(0) != '/') {
 			url = "/" + url;
 		}
-		StringBuffer path = new StringBuffer(getRootPath());
-		// document Path
-		path.append("&utmp=");
-		path.append(encode(url));
-
-		if (immediate) {
-			try {
-				makeRequest(path.toString());
-			} catch (Exception e) {	}
-		} else {
-			
-			EventData data = new EventData();
-			data.setUrl(path.toString());
-			synchronized (dataLock) {
-				AnalyticsDataPersistenceUtils.storeData(data);
-				loadEventSet();
-			}
-			
-		}
-
+		Hit hit = Hit.pageView(url);
+		hit.account = accountOf(account);
+		hit.priority = priority;
+		submit(hit);
 	}
 
 	/**
@@ -182,41 +407,120 @@ public class GoogleAnalytics {
 	 * @param opt_value
 	 *            An integer that you can use to provide numerical data about
 	 *            the user event.
+	 * @throws IllegalArgumentException if the category or action is null
 	 */
 	public void trackEvent(String category, String action, String opt_label,
 			int opt_value) {
-		StringBuffer path = new StringBuffer(getRootPath());
+		trackEvent(null, category, action, opt_label, opt_value,
+				PRIORITY_NORMAL);
+	}
 
-		path.append("&utmt=event");
-		// Event data
-		path.append("&utme=5(");
-		path.append(encode(category));
-		path.append("*");
-		path.append(encode(action));
-		if (opt_label != null) {
-			path.append("*");
-			path.append(encode(opt_label));
+	/**
+	 * Tracks an event with the given priority, see 
+	 * {@link #trackEvent(String, String, String, int)} and 
+	 * {@link #setLaneWeights(int, int, int)}. Critical events are never 
+	 * collapsed by the event aggregation.
+	 * 
+	 * @param category
+	 *            The name you supply for the group of objects you want to track
+	 * @param action
+	 *            A string that is uniquely paired with each category, and
+	 *            commonly used to define the type of user interaction
+	 * @param opt_label
+	 *            An optional string to provide additional dimensions to the
+	 *            event data.
+	 * @param opt_value
+	 *            An integer that you can use to provide numerical data about
+	 *            the user event.
+	 * @param priority
+	 *            {@link #PRIORITY_CRITICAL}, {@link #PRIORITY_NORMAL} or 
+	 *            {@link #PRIORITY_BULK}
+	 * @throws IllegalArgumentException if the priority is unknown or the
+	 *             category or action is null
+	 */
+	public void trackEvent(String category, String action, String opt_label,
+			int opt_value, int priority) {
+		trackEvent(null, category, action, opt_label, opt_value, priority);
+	}
+
+	/**
+	 * @param account web property ID, null for the ID of this instance
+	 */
+	/*package*/ void trackEvent(String account, String category,
+			String action, String opt_label, int opt_value, int priority) {
+		if (category == null || action == null) {
+			throw new IllegalArgumentException(
+					"Event category and action can not be null");
 		}
-		path.append(")");
-		if (opt_value > -1) {
-			path.append("(");
-			path.append(opt_value);
-			path.append(")");
+		checkPriority(priority);
+		Hit hit = Hit.event(category, action, opt_label, opt_value);
+		hit.account = accountOf(account);
+		hit.priority = priority;
+		if (priority != PRIORITY_CRITICAL && aggregator.add(hit)) {
+			return;
 		}
+		submit(hit);
+	}
 
-		if (immediate) {
-			try {
-				makeRequest(path.toString());
-			} catch (Exception e) {/*ignored*/}
-		} else {
-			EventData data = new EventData();
-			data.setUrl(path.toString());
-			synchronized (dataLock) {
-				AnalyticsDataPersistenceUtils.storeData(data);
-				loadEventSet();
-			}
+	/**
+	 * Starts measuring a user timing, such as the time to load a resource or
+	 * to render a screen. The time is reported as a timing hit when the 
+	 * returned span is passed to {@link #endTiming(TimingSpan)}. Spans are
+	 * pooled, starting and ending them does not allocate or touch the store
+	 * once as many spans were used as are running at a time. 
+	 * 
+	 * @param category
+	 *            The name you supply for the group of timings
+	 * @param variable
+	 *            The name of the timed operation
+	 * @return running span
+	 * @throws IllegalArgumentException if category or variable is null
+	 * @see #setTimingAggregation(int, long, int[])
+	 */
+	public TimingSpan startTiming(String category, String variable) {
+		return startTiming(null, category, variable);
+	}
+
+	/**
+	 * @param account web property ID, null for the ID of this instance
+	 */
+	/*package*/ TimingSpan startTiming(String account, String category,
+			String variable) {
+		if (category == null || variable == null) {
+			throw new IllegalArgumentException(
+					"Timing category and variable can not be null");
+		}
+		return timings.start(category, variable, accountOf(account));
+	}
+
+	/**
+	 * Ends the span and reports the elapsed time. The hit is built and 
+	 * submitted on a background thread, it follows the event sample rate.
+	 * The span goes back to the pool and must not be used afterwards.
+	 * 
+	 * @param span span returned by {@link #startTiming(String, String)}
+	 * @return elapsed time in milliseconds
+	 * @throws IllegalArgumentException if span is null or already ended
+	 */
+	public long endTiming(TimingSpan span) {
+		if (span == null) {
+			throw new IllegalArgumentException("Timing span can not be null");
+		}
+		return timings.end(span);
+	}
+
+	private static void checkPriority(int priority) {
+		if (priority < PRIORITY_CRITICAL || priority > PRIORITY_BULK) {
+			throw new IllegalArgumentException("Unknown priority " + priority);
 		}
+	}
 
+	/**
+	 * @return account to store on the hit, null for the ID of this 
+	 *         instance which is not stored
+	 */
+	private String accountOf(String account) {
+		return account == null || account.equals(accountId) ? null : account;
 	}
 	/**
 	 * Returns if it is on the immediate mode
@@ -227,7 +531,8 @@ public class GoogleAnalytics {
 	}
 	/**
 	 * Sets the immediate mode. In immediate mode the events are send 
-	 * right away.
+	 * right away by a background thread, tracking calls do not wait for 
+	 * the network.
 	 * 
 	 * @param immediate
 	 */
@@ -235,161 +540,1934 @@ public class GoogleAnalytics {
 		this.immediate = immediate;
 	}
 	/**
-	 * Reads and dispatches the events that have been stored. 
-	 * Dispatches events not only from this session but 
-	 * also the events that were stored but not dispatched on previous sessions as well.
-	 * <p>
-	 * If the GoogleAnalytics is on immediate mode no events are 
-	 * stored and calling this method has no use.
-	 *  
-	 * @return if there are more events to dispatch
- 	 */
-	public boolean readAndDispatch() {
-		synchronized (dataLock) {
-
-			if (currentEventSet == null) {
-				loadEventSet();
-			}
-
-			if (currentEventSet == null || currentEventSet.size() < 1) {
-				return false;
-			}
-			try {
-				EventData data = (EventData) currentEventSet
-						.get(processedEventIndex);
-				makeRequest(data.getUrl());
-				processedEventIndex++;
-				AnalyticsDataPersistenceUtils.deleteData(data);
-				return currentEventSet.size() > processedEventIndex;
-
-			} catch (Exception e) {
-				return false;
-			}
+	 * Sets the number of hits that can wait on the immediate mode queue
+	 * for the background thread. Default is 32.
+	 * 
+	 * @param capacity queue capacity
+	 * @throws IllegalArgumentException if capacity is less than 1
+	 */
+	public void setQueueCapacity(int capacity) {
+		if (capacity < 1) {
+			throw new IllegalArgumentException(
+					"Queue capacity must be at least 1");
 		}
+		dispatcher.setCapacity(capacity);
 	}
-	private void loadEventSet(){
-		currentEventSet = AnalyticsDataPersistenceUtils.getEventDataSet();
-		processedEventIndex=0;
+	/**
+	 * Returns the capacity of the immediate mode queue
+	 * @return queue capacity
+	 */
+	public int getQueueCapacity() {
+		return dispatcher.getCapacity();
 	}
-	
-	
-	private void initSessionData() {
-		SessionData data = AnalyticsDataPersistenceUtils.readSessionData();
-		long now = System.currentTimeMillis() / 1000L; // Analytics uses times
-														// divided by 1000
-		if (data == null) {
-			data = new SessionData();
-			data.setCurrTimestamp(now);
-			data.setPrevTimestamp(now);
-			data.setFirstTimestamp(now);
-			data.setVisits(1);
-			Random r = new Random();
-			data.setUserId(r.nextInt(9999999));
-		} else {
-			data.setPrevTimestamp(data.getCurrTimestamp());
-			data.setCurrTimestamp(now);
-			data.setVisits(data.getVisits() + 1);
+	/**
+	 * Sets what happens to a hit when the immediate mode queue is full. 
+	 * Default is {@link #OVERFLOW_DROP_NEWEST}.
+	 * 
+	 * @param overflowPolicy one of {@link #OVERFLOW_DROP_NEWEST},
+	 *            {@link #OVERFLOW_DROP_OLDEST} or
+	 *            {@link #OVERFLOW_SPILL_TO_STORE}
+	 * @throws IllegalArgumentException if the policy is unknown
+	 */
+	public void setOverflowPolicy(int overflowPolicy) {
+		if (overflowPolicy < OVERFLOW_DROP_NEWEST
+				|| overflowPolicy > OVERFLOW_SPILL_TO_STORE) {
+			throw new IllegalArgumentException("Unknown overflow policy "
+					+ overflowPolicy);
 		}
-		AnalyticsDataPersistenceUtils.storeData(data);
-		this.session = data;
+		dispatcher.setOverflowPolicy(overflowPolicy);
 	}
-
-	private void initFromSytemProperties() {
-		locale = System.getProperty("microedition.locale");
-		hostname = System.getProperty("microedition.hostname");
-
-		String platform = System.getProperty("microedition.platform");
-		String configuration = System.getProperty("microedition.configuration");
-		String profiles = System.getProperty("microedition.profiles");
-		StringBuffer userAgentBuffer = new StringBuffer();
-		userAgentBuffer.append(platform);
-		userAgentBuffer.append(" (Profile/").append(profiles);
-		userAgentBuffer.append(" Configuration/").append(configuration);
-		userAgentBuffer.append("; ").append(locale);
-		userAgentBuffer.append(")");
-		userAgent = userAgentBuffer.toString();
+	/**
+	 * Returns the overflow policy of the immediate mode queue
+	 * @return overflow policy
+	 */
+	public int getOverflowPolicy() {
+		return dispatcher.getOverflowPolicy();
 	}
-
-	private void makeRequest(String path) throws Exception {
-		System.out.println("URL:" + path);
-		System.out.println("UserAgent:" + userAgent);
-		HttpConnection c = (HttpConnection) Connector.open(path);
-		c.setRequestProperty("Host", "www.google-analytics.com");
-		c.setRequestProperty("User-Agent", userAgent);
-		int rc = c.getResponseCode();
-		if (rc != HttpConnection.HTTP_OK) {
-			throw new Exception("Connection failed with response code " + rc);
+	/**
+	 * Limits the storage used by the hits waiting to be dispatched. When a
+	 * limit is reached the eviction policy decides which hits are dropped,
+	 * see {@link #setEvictionPolicy(int)}. A value of 0 means no limit, 
+	 * which is the default.
+	 * 
+	 * @param maxHits maximum number of stored hits
+	 * @param maxBytes maximum number of bytes used by the stored hits
+	 * @throws IllegalArgumentException if a limit is negative
+	 */
+	public void setStorageQuota(int maxHits, int maxBytes) {
+		if (maxHits < 0 || maxBytes < 0) {
+			throw new IllegalArgumentException(
+					"Storage quota can not be negative");
 		}
+		int evicted;
+		synchronized (dataLock) {
+			this.maxStoredHits = maxHits;
+			this.maxStoredBytes = maxBytes;
+			if (!storesOpen) {
+				// enforced when the stores are opened
+				return;
+			}
+			evicted = stats.getEvicted();
+			evict(null, 0);
+			syncLanes();
+			evicted = stats.getEvicted() - evicted;
+		}
+		notifyDropped(evicted);
 	}
-
-	private String getCookie() {
-		StringBuffer cookieString = new StringBuffer();
-		cookieString.append("__utma=");
-		cookieString.append("999").append(".");
-		cookieString.append(session.getUserId()).append(".");
-		cookieString.append(session.getFirstTimestamp()).append(".");// first
-		cookieString.append(session.getPrevTimestamp()).append("."); // previous
-		cookieString.append(session.getCurrTimestamp()).append("."); // current
-		cookieString.append(session.getVisits());// visits
-		return encode(cookieString.toString());
+	/**
+	 * Sets which hits are dropped when the storage quota is reached or the 
+	 * record store is full. Default is {@link #EVICT_DROP_OLDEST}.
+	 * 
+	 * @param evictionPolicy one of {@link #EVICT_DROP_OLDEST},
+	 *            {@link #EVICT_DROP_NEWEST}, {@link #EVICT_KEEP_PAGEVIEWS}
+	 *            or {@link #EVICT_THIN}
+	 * @throws IllegalArgumentException if the policy is unknown
+	 */
+	public void setEvictionPolicy(int evictionPolicy) {
+		if (evictionPolicy < EVICT_DROP_OLDEST || evictionPolicy > EVICT_THIN) {
+			throw new IllegalArgumentException("Unknown eviction policy "
+					+ evictionPolicy);
+		}
+		this.evictionPolicy = evictionPolicy;
 	}
-
 	/**
-	 * Creates the beginning of the tracking .gif url. This part of the url is
-	 * valid for this session and created once. Refer to <a href=
-	 * "http://code.google.com/apis/analytics/docs/tracking/gaTrackingTroubleshooting.html#gifParameters"
-	 * > analytics document</a> for details of the parameters
+	 * Returns the eviction policy for the stored hits
+	 * @return eviction policy
+	 */
+	public int getEvictionPolicy() {
+		return evictionPolicy;
+	}
+	/**
+	 * Returns the number of hits that were dropped because of the storage 
+	 * quota or a full record store since the tracker was created.
 	 * 
-	 * @return beginning part of the tracking gif url
+	 * @return number of evicted hits
 	 */
-	private String getRootPath() {
-		synchronized (INSTANCE) {
-			if (rootPath == null) {
-				String encoding = System.getProperty("microedition.encoding");
-				StringBuffer path = new StringBuffer();
-				path.append("http://www.google-analytics.com/__utm.gif");
-				path.append("?utmwv=4.4ma"); // Tracking code version
-				path.append("&utmn=-1"); // ID to prevent caching
-				path.append("&utmcs=").append(encoding); // Language encoding
-				// Screen size
-				path.append("&utmsr=");
-				path.append(String.valueOf(screenWidth));
-				path.append("x");
-				path.append(String.valueOf(screenHeight));
-				// Screen color depth
-				path.append("&utmsc=");
-				path.append(String.valueOf(colorDepth)).append("-bit");
-				// hostname
-				path.append("&utmhn=").append(hostname);
-				// language
-				path.append("&utmul=");
-				path.append(locale);
-				path.append("&utmac=").append(accountId);
-				path.append("&utmcc=").append(getCookie());
-				rootPath = path.toString();
-			}
-		}
-		return rootPath;
-	}
-
-	private static String encode(String s) {
-		StringBuffer buf = new StringBuffer(s.length() + 16);
-		for (int i = 0; i < s.length(); i++) {
-			char ch = s.charAt(i);
-			if ((ch >= 'a' && ch <= 'z') || (ch >= 'A' && ch <= 'Z')
-					|| (ch >= '0' && ch <= '9') || ".-*_".indexOf(ch) > -1) { //$NON-NLS-1$
-				buf.append(ch);
-			} else if (ch == ' ') {
-				buf.append('+');
-			} else {
-				byte[] bytes = new String(new char[] { ch }).getBytes();
-				for (int j = 0; j < bytes.length; j++) {
-					buf.append('%');
-					buf.append(digits.charAt((bytes[j] & 0xf0) >> 4));
-					buf.append(digits.charAt(bytes[j] & 0xf));
-				}
-			}
+	public int getEvictedHits() {
+		return stats.getEvicted();
+	}
+	/**
+	 * Returns a snapshot of the tracker counters, the queue depths and the
+	 * latency histograms of storing, encoding and sending the hits.
+	 * 
+	 * @return current statistics
+	 */
+	public TrackerStats getStats() {
+		awaitInitialization();
+		int stored;
+		int dead;
+		synchronized (dataLock) {
+			stored = storedSize();
+			dead = deadLetters.size();
+		}
+		return stats.snapshot(stored, dispatcher.size(), dead);
+	}
+	/**
+	 * Sets the listener that is notified when stored hits are dispatched 
+	 * and when hits are dropped. The listener is called without holding 
+	 * any tracker locks, on the thread that did the work.
+	 * 
+	 * @param listener listener or null to remove it
+	 */
+	public void setListener(TrackerListener listener) {
+		synchronized (stats) {
+			this.listener = listener;
 		}
-		return buf.toString();
+	}
+	/**
+	 * Sets the number of page paths, categories, actions and labels that 
+	 * are kept in their url encoded form so that they are not encoded 
+	 * again on each hit. The least recently used ones are dropped first. 
+	 * 0 disables caching of unregistered strings. Default is 32. 
+	 * 
+	 * @param size maximum number of cached strings
+	 * @throws IllegalArgumentException if size is negative
+	 */
+	public void setEncodingCacheSize(int size) {
+		if (size < 0) {
+			throw new IllegalArgumentException(
+					"Encoding cache size can not be negative");
+		}
+		encodedCache.setMaxSize(size);
+	}
+	/**
+	 * Returns the size of the encoding cache
+	 * @return maximum number of cached strings
+	 */
+	public int getEncodingCacheSize() {
+		return encodedCache.getMaxSize();
+	}
+	/**
+	 * Registers a page that is tracked often. The page path is encoded once
+	 * and kept on the encoding cache permanently.
+	 * 
+	 * @param url page path as it is passed to {@link #trackPageView(String)}
+	 */
+	public void registerPageView(String url) {
+		if (url == null) {
+			return;
+		}
+		if (url.charAt(0) != '/') {
+			url = "/" + url;
+		}
+		encodedCache.pin(url);
+	}
+	/**
+	 * Registers an event that is tracked often. The strings are encoded 
+	 * once and kept on the encoding cache permanently.
+	 * 
+	 * @param category event category
+	 * @param action event action
+	 * @param opt_label optional event label, can be null
+	 */
+	public void registerEvent(String category, String action, String opt_label) {
+		if (category != null) {
+			encodedCache.pin(category);
+		}
+		if (action != null) {
+			encodedCache.pin(action);
+		}
+		if (opt_label != null) {
+			encodedCache.pin(opt_label);
+		}
+	}
+	/**
+	 * Sets the timeouts for the tracking requests. If the response headers
+	 * are not received within the connect timeout, or the response body is
+	 * not read within the read timeout, the connection is closed and the 
+	 * request fails. 0 disables a timeout. Defaults are 20 seconds.
+	 * 
+	 * @param connectTimeoutMillis connect timeout in milliseconds
+	 * @param readTimeoutMillis read timeout in milliseconds
+	 * @throws IllegalArgumentException if a timeout is negative
+	 */
+	public void setTimeouts(int connectTimeoutMillis, int readTimeoutMillis) {
+		if (connectTimeoutMillis < 0 || readTimeoutMillis < 0) {
+			throw new IllegalArgumentException("Timeouts can not be negative");
+		}
+		synchronized (this) {
+			connectTimeout = connectTimeoutMillis;
+			readTimeout = readTimeoutMillis;
+			transport.setTimeouts(connectTimeoutMillis, readTimeoutMillis);
+		}
+	}
+	/**
+	 * Replaces the transport that sends the tracking requests. The default 
+	 * transport uses the MIDP <code>HttpConnection</code>. The timeouts 
+	 * set with {@link #setTimeouts(int, int)} are applied to the new 
+	 * transport.
+	 * 
+	 * @param transport new transport
+	 * @throws IllegalArgumentException if transport is null
+	 */
+	public void setTransport(HitTransport transport) {
+		if (transport == null) {
+			throw new IllegalArgumentException("Transport can not be null");
+		}
+		synchronized (this) {
+			transport.setTimeouts(connectTimeout, readTimeout);
+			this.transport = transport;
+		}
+	}
+	/**
+	 * Sends the stored hits in batches with a single POST request per 
+	 * batch instead of a GET request per hit. Each line of the request body
+	 * carries the parameters of one hit. The collector may answer with one 
+	 * status code per line, 200 for the accepted hits. Hits with a 4xx code
+	 * are moved to the dead letters and the others are retried later. An 
+	 * answer without status codes accepts the whole batch. If the request
+	 * fails with a status other than 200 none of the hits are dropped, they
+	 * are retried like after a network error. Hits sent on the immediate 
+	 * mode are not batched. Disabled by default.
+	 * 
+	 * @param endpoint url of the collector, null to disable batching
+	 * @param maxHits maximum number of hits in a batch
+	 * @throws IllegalArgumentException if maxHits is less than 1
+	 */
+	public void setBatchDispatch(String endpoint, int maxHits) {
+		if (endpoint != null && maxHits < 1) {
+			throw new IllegalArgumentException(
+					"Batch size must be at least 1");
+		}
+		synchronized (this) {
+			batchEndpoint = endpoint;
+			batchSize = maxHits;
+		}
+	}
+	/**
+	 * Replaces the stores of the {@link #PRIORITY_NORMAL} hits waiting to 
+	 * be dispatched and of the dead letters. The default stores are 
+	 * journals on the MIDP record store. The new stores are opened if they
+	 * are not open yet, the hits on the current stores are moved to them 
+	 * and the current stores are closed. Hits that do not fit the new 
+	 * stores are counted as evicted. Stores set right after 
+	 * {@link #getInstance(String, MIDlet)} are in place when the dispatch
+	 * that was cut short by the end of the application is recovered.
+	 * 
+	 * @param hits store of the hits to dispatch
+	 * @param deadLetters store of the hits that failed permanently
+	 * @throws IllegalArgumentException if a store is null, is already used
+	 *             or can not be opened
+	 * @see #setLaneStore(int, HitStore)
+	 */
+	public void setHitStores(HitStore hits, HitStore deadLetters) {
+		if (hits == null || deadLetters == null || hits == deadLetters) {
+			throw new IllegalArgumentException(
+					"Two different stores are required");
+		}
+		replaceStores(PRIORITY_NORMAL, hits, deadLetters);
+	}
+	/**
+	 * Replaces the store of the hits of a priority, like 
+	 * {@link #setHitStores(HitStore, HitStore)} does for the normal 
+	 * priority.
+	 * 
+	 * @param priority {@link #PRIORITY_CRITICAL}, {@link #PRIORITY_NORMAL}
+	 *            or {@link #PRIORITY_BULK}
+	 * @param hits store of the hits to dispatch
+	 * @throws IllegalArgumentException if the priority is unknown, or the
+	 *             store is null, is already used or can not be opened
+	 */
+	public void setLaneStore(int priority, HitStore hits) {
+		checkPriority(priority);
+		if (hits == null) {
+			throw new IllegalArgumentException("Store can not be null");
+		}
+		replaceStores(priority, hits, null);
+	}
+	/**
+	 * Sets how often each priority gets to send a hit while hits of 
+	 * several priorities are waiting. With weights 8, 4 and 1, which are 
+	 * the defaults, 8 of every 13 hits sent are critical ones as long as 
+	 * there are critical hits. A priority without hits gives its turns to 
+	 * the others.
+	 * 
+	 * @param critical weight of {@link #PRIORITY_CRITICAL}
+	 * @param normal weight of {@link #PRIORITY_NORMAL}
+	 * @param bulk weight of {@link #PRIORITY_BULK}
+	 * @throws IllegalArgumentException if a weight is less than 1
+	 */
+	public void setLaneWeights(int critical, int normal, int bulk) {
+		if (critical < 1 || normal < 1 || bulk < 1) {
+			throw new IllegalArgumentException(
+					"Lane weights must be at least 1");
+		}
+		synchronized (dataLock) {
+			laneWeights[PRIORITY_CRITICAL] = critical;
+			laneWeights[PRIORITY_NORMAL] = normal;
+			laneWeights[PRIORITY_BULK] = bulk;
+			for (int i = 0; i < laneCredits.length; i++) {
+				laneCredits[i] = 0;
+			}
+		}
+	}
+
+	/**
+	 * @param deadLetters new store of the dead letters, null to keep it
+	 */
+	private void replaceStores(int priority, HitStore hits,
+			HitStore deadLetters) {
+		int evicted;
+		synchronized (dispatchLock) {
+			synchronized (dataLock) {
+				if ((hits != laneStore(priority) && isLane(hits))
+						|| hits == deadLetterStore()
+						|| (deadLetters != null && isLane(deadLetters))) {
+					throw new IllegalArgumentException(
+							"Store is already used");
+				}
+				if ((!hits.isOpen() && !hits.open())
+						|| (deadLetters != null && !deadLetters.isOpen() 
+								&& !deadLetters.open())) {
+					throw new IllegalArgumentException(
+							"Store can not be opened");
+				}
+				if (!storesOpen) {
+					// the initialization moves the stored hits
+					pendingLanes[priority] = hits;
+					if (deadLetters != null) {
+						pendingDeadLetters = deadLetters;
+					}
+					return;
+				}
+				evicted = stats.getEvicted();
+				moveHits(lanes[priority], hits);
+				lanes[priority] = hits;
+				if (deadLetters != null) {
+					moveHits(this.deadLetters, deadLetters);
+					this.deadLetters = deadLetters;
+				}
+				evicted = stats.getEvicted() - evicted;
+				scheduler.hitStored(storedSize(), false);
+			}
+		}
+		notifyDropped(evicted);
+	}
+
+	private boolean isLane(HitStore store) {
+		for (int i = 0; i < lanes.length; i++) {
+			if (laneStore(i) == store) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Caller must hold the dataLock.
+	 * 
+	 * @return store of the lane, or the one it is replaced with when the
+	 *         stores are opened
+	 */
+	private HitStore laneStore(int priority) {
+		return pendingLanes[priority] != null ? pendingLanes[priority]
+				: lanes[priority];
+	}
+
+	private HitStore deadLetterStore() {
+		return pendingDeadLetters != null ? pendingDeadLetters : deadLetters;
+	}
+	/**
+	 * Sets the percentage of the users that are tracked. The decision is 
+	 * made per user, a user that is tracked stays tracked on the following
+	 * visits. Hits of the users that are not tracked are dropped right away.
+	 * Default is 100.
+	 * 
+	 * @param percent percentage of the users tracked, between 0 and 100
+	 * @throws IllegalArgumentException if percent is out of range
+	 */
+	public void setSampleRate(int percent) {
+		setSampleRates(percent, percent);
+	}
+	/**
+	 * Sets the percentage of the users that are tracked separately for
+	 * pageviews and events. Timings follow the event rate. See 
+	 * {@link #setSampleRate(int)}. Users tracked
+	 * with the lower rate are also tracked with the higher rate.
+	 * 
+	 * @param pageViewPercent percentage of the users whose pageviews are 
+	 *            tracked, between 0 and 100
+	 * @param eventPercent percentage of the users whose events are 
+	 *            tracked, between 0 and 100
+	 * @throws IllegalArgumentException if a percent is out of range
+	 */
+	public void setSampleRates(int pageViewPercent, int eventPercent) {
+		if (pageViewPercent < 0 || pageViewPercent > 100 || eventPercent < 0
+				|| eventPercent > 100) {
+			throw new IllegalArgumentException(
+					"Sample rate must be between 0 and 100");
+		}
+		synchronized (dataLock) {
+			this.pageViewSampleRate = pageViewPercent;
+			this.eventSampleRate = eventPercent;
+		}
+	}
+	/**
+	 * Collapses the events with the same category, action and label that
+	 * are tracked within the window into a single hit. The hit carries the
+	 * sum or the maximum of the values, the label is kept as it is so the 
+	 * collapsed events are reported together with the others. Useful for 
+	 * events that are tracked many times a second. Disabled by default. 
+	 * 
+	 * @param windowMillis length of the window in milliseconds, 0 disables
+	 *            aggregation
+	 * @param function {@link #AGGREGATE_SUM} or {@link #AGGREGATE_MAX}
+	 * @throws IllegalArgumentException if a value is out of range
+	 * @see #setEventAggregation(long, int, boolean)
+	 */
+	public void setEventAggregation(long windowMillis, int function) {
+		setEventAggregation(windowMillis, function, false);
+	}
+	/**
+	 * Collapses the events like {@link #setEventAggregation(long, int)} 
+	 * and optionally adds the number of occurrences to the label of the 
+	 * collapsed events as "x&lt;count&gt;". Each count then becomes a 
+	 * label of its own in the reports, "intro x17" and "intro x23" are not
+	 * reported together with "intro".
+	 * 
+	 * @param windowMillis length of the window in milliseconds, 0 disables
+	 *            aggregation
+	 * @param function {@link #AGGREGATE_SUM} or {@link #AGGREGATE_MAX}
+	 * @param countInLabel true to add the number of occurrences to the 
+	 *            label, it applies to the events sent afterwards
+	 * @throws IllegalArgumentException if a value is out of range
+	 */
+	public void setEventAggregation(long windowMillis, int function,
+			boolean countInLabel) {
+		if (windowMillis < 0) {
+			throw new IllegalArgumentException("Window can not be negative");
+		}
+		if (function != AGGREGATE_SUM && function != AGGREGATE_MAX) {
+			throw new IllegalArgumentException("Unknown aggregation function "
+					+ function);
+		}
+		eventCountInLabel = countInLabel;
+		aggregator.configure(windowMillis, function);
+		if (windowMillis == 0) {
+			aggregator.flush();
+		}
+	}
+	/**
+	 * Sets how the timings are reported. With {@link #TIMING_EACH} each
+	 * timing is a hit. With {@link #TIMING_BUCKETS} the times of the same 
+	 * category and variable are collected for the window and a hit is sent
+	 * for each bucket that has times, with the average time and the bucket
+	 * as the label, "100-250". Bucket <code>i</code> holds the times below 
+	 * <code>values[i]</code> and not below the previous bound. With 
+	 * {@link #TIMING_PERCENTILES} a hit is sent for each of the percentiles
+	 * in <code>values</code>, labeled "p90". Default is 
+	 * {@link #TIMING_EACH}.
+	 * 
+	 * @param mode {@link #TIMING_EACH}, {@link #TIMING_BUCKETS} or
+	 *            {@link #TIMING_PERCENTILES}
+	 * @param windowMillis length of the window in milliseconds, ignored for
+	 *            {@link #TIMING_EACH}
+	 * @param values ascending bucket bounds in milliseconds or percentiles
+	 *            between 1 and 100, ignored for {@link #TIMING_EACH}
+	 * @throws IllegalArgumentException if a value is out of range
+	 */
+	public void setTimingAggregation(int mode, long windowMillis,
+			int[] values) {
+		setTimingAggregation(mode, windowMillis, values, false);
+	}
+	/**
+	 * Sets how the timings are reported like 
+	 * {@link #setTimingAggregation(int, long, int[])} and optionally adds 
+	 * the number of times of an aggregated hit to its label as 
+	 * "x&lt;count&gt;". Each count then becomes a label of its own in the 
+	 * reports, "p90+x37" and "p90+x41" are not reported together.
+	 * 
+	 * @param mode {@link #TIMING_EACH}, {@link #TIMING_BUCKETS} or
+	 *            {@link #TIMING_PERCENTILES}
+	 * @param windowMillis length of the window in milliseconds, ignored for
+	 *            {@link #TIMING_EACH}
+	 * @param values ascending bucket bounds in milliseconds or percentiles
+	 *            between 1 and 100, ignored for {@link #TIMING_EACH}
+	 * @param countInLabel true to add the number of times to the label, it
+	 *            applies to the timings sent afterwards
+	 * @throws IllegalArgumentException if a value is out of range
+	 */
+	public void setTimingAggregation(int mode, long windowMillis,
+			int[] values, boolean countInLabel) {
+		if (mode != TIMING_EACH && mode != TIMING_BUCKETS
+				&& mode != TIMING_PERCENTILES) {
+			throw new IllegalArgumentException("Unknown timing aggregation "
+					+ mode);
+		}
+		int[] copy = null;
+		if (mode != TIMING_EACH) {
+			if (windowMillis <= 0) {
+				throw new IllegalArgumentException(
+						"Window must be greater than 0");
+			}
+			if (values == null || values.length == 0) {
+				throw new IllegalArgumentException(
+						"Buckets or percentiles are mandatory");
+			}
+			for (int i = 0; i < values.length; i++) {
+				if (mode == TIMING_BUCKETS) {
+					if (values[i] <= 0 || i > 0 && values[i] <= values[i - 1]) {
+						throw new IllegalArgumentException(
+								"Bucket bounds must be positive and ascending");
+					}
+				} else if (values[i] < 1 || values[i] > 100) {
+					throw new IllegalArgumentException(
+							"Percentile must be between 1 and 100");
+				}
+			}
+			copy = new int[values.length];
+			System.arraycopy(values, 0, copy, 0, values.length);
+		}
+		// the collected times are reported with the previous setting
+		timings.flush();
+		timingCountInLabel = countInLabel;
+		timings.configure(mode, windowMillis, copy);
+	}
+	/**
+	 * Sets how the hits of the deferred mode are written to the store. With
+	 * {@link #DURABILITY_EVERY_HIT} each hit is written before the tracking
+	 * call returns. With {@link #DURABILITY_GROUP_COMMIT} the hits are kept 
+	 * in memory and written with a single store update when 
+	 * <code>groupSize</code> hits are collected, when the oldest one has 
+	 * waited <code>maxDelayMillis</code>, on {@link #flush()} and before 
+	 * dispatching. Tracking calls then do not wait for the store, but up to
+	 * <code>groupSize</code> hits are lost if the application is killed 
+	 * before they are written. Default is {@link #DURABILITY_EVERY_HIT}.
+	 * 
+	 * @param mode {@link #DURABILITY_EVERY_HIT} or 
+	 *            {@link #DURABILITY_GROUP_COMMIT}
+	 * @param groupSize hits written together, ignored for 
+	 *            {@link #DURABILITY_EVERY_HIT}
+	 * @param maxDelayMillis longest time a hit is kept in memory, 0 for no
+	 *            limit
+	 * @throws IllegalArgumentException if a value is out of range
+	 */
+	public void setDurability(int mode, int groupSize, long maxDelayMillis) {
+		if (mode != DURABILITY_EVERY_HIT && mode != DURABILITY_GROUP_COMMIT) {
+			throw new IllegalArgumentException("Unknown durability mode "
+					+ mode);
+		}
+		if (mode == DURABILITY_GROUP_COMMIT && groupSize < 1) {
+			throw new IllegalArgumentException(
+					"Group size must be at least 1");
+		}
+		if (maxDelayMillis < 0) {
+			throw new IllegalArgumentException("Delay can not be negative");
+		}
+		this.durability = mode;
+		stage.configure(mode == DURABILITY_GROUP_COMMIT ? groupSize : 0,
+				maxDelayMillis);
+		if (mode == DURABILITY_EVERY_HIT) {
+			stage.flush();
+		}
+	}
+	/**
+	 * Returns the durability mode of the deferred mode
+	 * @return durability mode
+	 */
+	public int getDurability() {
+		return durability;
+	}
+	/**
+	 * Submits the ended timings, the times collected by the timing 
+	 * aggregation and the events collected by the event aggregation, and 
+	 * writes the hits kept in memory by {@link #DURABILITY_GROUP_COMMIT} to
+	 * the store right away. Call this before the application is paused or
+	 * destroyed.
+	 */
+	public void flush() {
+		timings.flush();
+		aggregator.flush();
+		stage.flush();
+	}
+	/**
+	 * Lets the tracker dispatch the stored hits by itself on a background
+	 * thread. A dispatch starts when the number of stored hits reaches the
+	 * high-water mark, or when the oldest stored hit gets older than the 
+	 * maximum age. When dispatching fails or the network is slow the 
+	 * dispatches are spaced out further. Disabled by default.
+	 * 
+	 * @param highWaterMark number of stored hits that starts a dispatch, 
+	 *            0 for no limit
+	 * @param maxAgeMillis age of the oldest stored hit that starts a 
+	 *            dispatch, 0 for no limit
+	 * @throws IllegalArgumentException if a value is negative
+	 * @see #setAutoDispatchBurst(int, long)
+	 */
+	public void setAutoDispatch(int highWaterMark, long maxAgeMillis) {
+		if (highWaterMark < 0 || maxAgeMillis < 0) {
+			throw new IllegalArgumentException(
+					"Auto dispatch values can not be negative");
+		}
+		scheduler.configure(highWaterMark, maxAgeMillis);
+		int stored;
+		synchronized (dataLock) {
+			// the initialization reports the hits it finds on the stores
+			stored = storesOpen ? storedSize() : 0;
+		}
+		if (stored > 0) {
+			scheduler.hitStored(stored, false);
+		}
+	}
+	/**
+	 * Sets the size of the automatic dispatches. Each dispatch sends at most
+	 * <code>maxHits</code>, fewer if they are not expected to be sent 
+	 * within the time budget at the observed latency. Defaults are 100 
+	 * hits and 30 seconds.
+	 * 
+	 * @param maxHits maximum number of hits sent at once
+	 * @param timeBudgetMillis time budget of a dispatch
+	 * @throws IllegalArgumentException if a value is less than 1
+	 */
+	public void setAutoDispatchBurst(int maxHits, long timeBudgetMillis) {
+		if (maxHits < 1 || timeBudgetMillis < 1) {
+			throw new IllegalArgumentException(
+					"Burst values must be positive");
+		}
+		scheduler.setBurst(maxHits, timeBudgetMillis);
+	}
+	/**
+	 * Sets how the failed hits are retried. After each consecutive failure 
+	 * dispatching waits twice as long as the previous wait, starting with
+	 * the base backoff up to the maximum backoff, with a random jitter.
+	 * A hit that is rejected by the server <code>maxAttempts</code> times 
+	 * is moved to the dead letters. Defaults are 10 attempts, 2 seconds 
+	 * and 5 minutes.
+	 * 
+	 * @param maxAttempts number of attempts for a hit, between 1 and 127
+	 * @param baseBackoffMillis wait after the first failure
+	 * @param maxBackoffMillis longest wait between failures
+	 * @throws IllegalArgumentException if a value is out of range
+	 */
+	public void setRetryPolicy(int maxAttempts, long baseBackoffMillis,
+			long maxBackoffMillis) {
+		if (maxAttempts < 1 || maxAttempts > Byte.MAX_VALUE) {
+			throw new IllegalArgumentException(
+					"Max attempts must be between 1 and 127");
+		}
+		if (baseBackoffMillis < 0 || maxBackoffMillis < baseBackoffMillis) {
+			throw new IllegalArgumentException("Invalid backoff "
+					+ baseBackoffMillis + " - " + maxBackoffMillis);
+		}
+		this.maxAttempts = maxAttempts;
+		breaker.setBackoff(baseBackoffMillis, maxBackoffMillis);
+	}
+	/**
+	 * Sets when dispatching stops after failures. After 
+	 * <code>failureThreshold</code> consecutive failures no hits are sent 
+	 * for <code>openMillis</code>, then a single hit is sent as a probe. 
+	 * 0 disables the circuit breaker. Defaults are 5 failures and 
+	 * 1 minute.
+	 * 
+	 * @param failureThreshold consecutive failures to stop dispatching
+	 * @param openMillis time to wait before probing again
+	 * @throws IllegalArgumentException if a value is negative
+	 */
+	public void setCircuitBreaker(int failureThreshold, long openMillis) {
+		if (failureThreshold < 0 || openMillis < 0) {
+			throw new IllegalArgumentException(
+					"Circuit breaker values can not be negative");
+		}
+		breaker.setThreshold(failureThreshold, openMillis);
+	}
+	/**
+	 * Returns the number of hits that failed permanently and are kept aside
+	 * as dead letters. Dead letters are not dispatched.
+	 * 
+	 * @return number of dead letters
+	 */
+	public int getDeadLetterCount() {
+		awaitInitialization();
+		synchronized (dataLock) {
+			return deadLetters.size();
+		}
+	}
+	/**
+	 * Moves the dead letters back to the stored hits to be dispatched again.
+	 * Their priority is not kept, they are dispatched as 
+	 * {@link #PRIORITY_NORMAL} hits.
+	 * 
+	 * @return number of hits moved
+	 */
+	public int requeueDeadLetters() {
+		awaitInitialization();
+		synchronized (dataLock) {
+			int moved = 0;
+			byte[] data;
+			while ((data = deadLetters.peek()) != null) {
+				data[Hit.ATTEMPTS_OFFSET] = 0;
+				if (!lanes[PRIORITY_NORMAL].append(data)) {
+					break;
+				}
+				deadLetters.remove();
+				moved++;
+			}
+			// the lane is synced before the dead letters
+			syncLanes();
+			return moved;
+		}
+	}
+	/**
+	 * Deletes the dead letters.
+	 */
+	public void clearDeadLetters() {
+		awaitInitialization();
+		synchronized (dataLock) {
+			while (deadLetters.size() > 0) {
+				deadLetters.remove();
+			}
+			deadLetters.sync();
+		}
+	}
+	/**
+	 * Reads and dispatches the events that have been stored. 
+	 * Dispatches events not only from this session but 
+	 * also the events that were stored but not dispatched on previous sessions as well.
+	 * <p>
+	 * If the GoogleAnalytics is on immediate mode no events are 
+	 * stored and calling this method has no use.
+	 *  
+	 * @return if there are more events to dispatch, false if the event 
+	 *         was not sent or dispatching has to wait after failures
+ 	 */
+	public boolean readAndDispatch() {
+		DispatchResult result = dispatch(1);
+		return result.getSent() > 0 && result.getFailed() == 0
+				&& result.getRetryAfter() == 0 && result.getRemaining() > 0;
+	}
+	/**
+	 * Dispatches up to <code>maxHits</code> stored events in a single pass
+	 * over the store. Dispatching stops at the first event that fails to be
+	 * sent, the failed event is kept and retried on the next call. Events
+	 * that the server rejects are moved to the dead letters, they count 
+	 * toward <code>maxHits</code>.
+	 * 
+	 * @param maxHits maximum number of events to send or reject
+	 * @return counts of sent, failed and remaining events
+	 */
+	public DispatchResult dispatch(int maxHits) {
+		return dispatch(maxHits, -1L);
+	}
+	/**
+	 * Dispatches the stored events until there are no more events left or 
+	 * the given time budget is used up. The budget is checked between
+	 * requests so a request that has already started is allowed to 
+	 * complete. 
+	 * 
+	 * @param timeBudgetMillis time budget in milliseconds
+	 * @return counts of sent, failed and remaining events
+	 */
+	public DispatchResult dispatchAll(long timeBudgetMillis) {
+		return dispatch(Integer.MAX_VALUE, System.currentTimeMillis()
+				+ timeBudgetMillis);
+	}
+
+	/**
+	 * Sends the stored hits. Only one thread dispatches at a time. The 
+	 * dataLock is held only while a hit is claimed and while it is 
+	 * committed or released, never during the network request, so the 
+	 * tracking calls do not wait for the network.
+	 */
+	private DispatchResult dispatch(int maxHits, long deadline) {
+		awaitInitialization();
+		stage.flush();
+		DispatchResult result = dispatchHits(maxHits, deadline);
+		TrackerListener l = getListener();
+		if (l != null) {
+			l.dispatchFinished(result);
+		}
+		return result;
+	}
+
+	private DispatchResult dispatchHits(int maxHits, long deadline) {
+		synchronized (dispatchLock) {
+			long retryAfter = breaker.delay(System.currentTimeMillis());
+			if (retryAfter > 0) {
+				return new DispatchResult(0, 0, getStoredHitCount(),
+						retryAfter);
+			}
+			if (breaker.isOpen()) {
+				// probe with a single hit
+				maxHits = 1;
+			}
+			int sent = 0;
+			int failed = 0;
+			String endpoint;
+			int batch;
+			synchronized (this) {
+				endpoint = batchEndpoint;
+				batch = batchSize;
+			}
+			int[] counts = new int[2];
+			// rejected hits count, a proxy that rejects everything does not
+			// empty the store in one call
+			while (sent + failed < maxHits) {
+				if (deadline > 0 && System.currentTimeMillis() >= deadline) {
+					break;
+				}
+				if (endpoint != null) {
+					boolean more = sendBatch(endpoint, Math.min(batch, maxHits
+							- sent - failed), counts);
+					sent += counts[0];
+					failed += counts[1];
+					if (!more) {
+						break;
+					}
+					continue;
+				}
+				Hit hit;
+				HitStore lane;
+				byte[] data;
+				synchronized (dataLock) {
+					int priority = nextLane(NO_CLAIMS);
+					if (priority < 0) {
+						break;
+					}
+					lane = lanes[priority];
+					data = lane.claim();
+					if (data == null) {
+						break;
+					}
+					checkpoint.claimed(priority, data);
+					hit = Hit.fromBytes(data);
+					if (hit == null) {
+						// unreadable entry, nothing to send
+						lane.commit();
+						checkpoint.acknowledge();
+						continue;
+					}
+					hit.priority = priority;
+				}
+				// a single write records the hit and the acknowledgements
+				// since the lanes were synced
+				checkpoint.write();
+				try {
+					sendHit(hit);
+					breaker.onSuccess();
+				} catch (HttpStatusException e) {
+					failed++;
+					synchronized (dataLock) {
+						if (e.isPermanent()) {
+							moveToDeadLetters(lane, hit);
+							continue;
+						}
+						breaker.onFailure(System.currentTimeMillis());
+						if (hit.attempts + 1 >= maxAttempts) {
+							moveToDeadLetters(lane, hit);
+						} else {
+							lane.updateHead(Hit.ATTEMPTS_OFFSET,
+									(byte) (hit.attempts + 1));
+							lane.release();
+							checkpoint.release();
+						}
+					}
+					break;
+				} catch (Exception e) {
+					failed++;
+					breaker.onFailure(System.currentTimeMillis());
+					synchronized (dataLock) {
+						lane.release();
+					}
+					checkpoint.release();
+					break;
+				}
+				synchronized (dataLock) {
+					lane.commit();
+					checkpoint.acknowledge();
+					sent++;
+					if (++unsyncedHits == SYNC_GROUP_SIZE) {
+						syncLanes();
+					}
+				}
+			}
+			// the last acknowledgements, the lanes are synced once they 
+			// hold a group of them or when hits failed
+			checkpoint.write();
+			synchronized (dataLock) {
+				if (failed > 0) {
+					syncLanes();
+				}
+				return new DispatchResult(sent, failed, storedSize(),
+						breaker.delay(System.currentTimeMillis()));
+			}
+		}
+	}
+
+	/**
+	 * Claims up to <code>max</code> stored hits from the lanes and sends 
+	 * them with a single POST, one hit per line. The response body may carry a status 
+	 * code per line, hits without one are accepted. Rejected hits are moved
+	 * to the dead letters, hits that should be retried are appended to the
+	 * end of their lane. If the request itself fails the claims are 
+	 * released. Caller must hold the dispatchLock.
+	 * 
+	 * @param counts set to the number of sent and failed hits
+	 * @return false if dispatching should stop
+	 */
+	private boolean sendBatch(String endpoint, int max, int[] counts) {
+		counts[0] = 0;
+		counts[1] = 0;
+		Hit[] hits = new Hit[max];
+		int[] priorities = new int[max];
+		int[] laneClaims = new int[lanes.length];
+		int claimed = 0;
+		synchronized (dataLock) {
+			while (claimed < max) {
+				int priority = nextLane(laneClaims);
+				if (priority < 0) {
+					break;
+				}
+				byte[] data = lanes[priority].claim();
+				if (data == null) {
+					break;
+				}
+				checkpoint.claimed(priority, data);
+				laneClaims[priority]++;
+				priorities[claimed] = priority;
+				// unreadable entries stay null and are dropped
+				hits[claimed++] = Hit.fromBytes(data);
+			}
+		}
+		if (claimed == 0) {
+			return false;
+		}
+		StringBuffer body = new StringBuffer(claimed * 256);
+		int lines = 0;
+		for (int i = 0; i < claimed; i++) {
+			if (hits[i] == null) {
+				continue;
+			}
+			long start = System.currentTimeMillis();
+			String url = buildUrl(hits[i]);
+			stats.encoded(System.currentTimeMillis() - start);
+			body.append(url.substring(url.indexOf('?') + 1)).append('\n');
+			lines++;
+		}
+		int[] statuses = null;
+		// the whole batch is recorded, the recovery counts an attempt for
+		// each of its hits
+		checkpoint.write();
+		long start = System.currentTimeMillis();
+		try {
+			if (lines > 0) {
+				statuses = parseStatuses(getTransport().post(endpoint,
+						body.toString().getBytes(), userAgent), lines);
+			}
+		} catch (Exception e) {
+			// a status for the whole request, like 404 from a wrong 
+			// endpoint or 413 for a batch that is too large, says nothing
+			// about the hits, they are kept
+			counts[1] = lines;
+			recordFailures(lines, System.currentTimeMillis() - start);
+			synchronized (dataLock) {
+				releaseLanes(laneClaims);
+			}
+			checkpoint.release();
+			breaker.onFailure(System.currentTimeMillis());
+			return false;
+		}
+		long perHit = lines == 0 ? 0 : (System.currentTimeMillis() - start)
+				/ lines;
+		boolean retry = false;
+		synchronized (dataLock) {
+			int line = 0;
+			for (int i = 0; i < claimed; i++) {
+				Hit hit = hits[i];
+				if (hit == null) {
+					continue;
+				}
+				int status = statuses == null ? HttpConnection.HTTP_OK
+						: statuses[line];
+				line++;
+				if (status == HttpConnection.HTTP_OK) {
+					counts[0]++;
+					stats.hitSent(perHit);
+					continue;
+				}
+				counts[1]++;
+				stats.hitFailed(perHit);
+				hit.attempts++;
+				if (HttpStatusException.isPermanent(status)
+						|| hit.attempts >= maxAttempts) {
+					deadLetters.append(hit.toBytes());
+				} else {
+					if (!lanes[priorities[i]].append(hit.toBytes())) {
+						stats.hitsEvicted(1);
+					}
+					retry = true;
+				}
+			}
+			if (counts[1] == 0) {
+				// acknowledged before the lanes are synced
+				checkpoint.acknowledge();
+			} else {
+				// the retried hits are appended again, the batch is sent 
+				// again if the application is killed before the sync
+				checkpoint.release();
+			}
+			checkpoint.write();
+			commitLanes(laneClaims);
+			syncLanes();
+		}
+		if (retry) {
+			breaker.onFailure(System.currentTimeMillis());
+			return false;
+		}
+		breaker.onSuccess();
+		return true;
+	}
+
+	private void recordFailures(int hits, long millis) {
+		for (int i = 0; i < hits; i++) {
+			stats.hitFailed(millis / hits);
+		}
+	}
+
+	/**
+	 * Reads one status code per line from the batch response.
+	 * 
+	 * @return status codes, missing ones are 200, or null if the response
+	 *         is not a list of status codes
+	 */
+	/*package*/ static int[] parseStatuses(byte[] response, int lines) {
+		if (response == null || response.length == 0) {
+			return null;
+		}
+		int[] statuses = new int[lines];
+		for (int i = 0; i < lines; i++) {
+			statuses[i] = HttpConnection.HTTP_OK;
+		}
+		int line = 0;
+		int status = -1;
+		for (int i = 0; i <= response.length; i++) {
+			int ch = i < response.length ? response[i] : '\n';
+			if (ch >= '0' && ch <= '9') {
+				status = (status < 0 ? 0 : status * 10) + ch - '0';
+			} else if (ch == '\n') {
+				if (status >= 0 && line < lines) {
+					statuses[line] = status;
+				}
+				if (status >= 0) {
+					line++;
+				}
+				status = -1;
+			} else if (ch != '\r' && ch != ' ') {
+				return null;
+			}
+		}
+		return statuses;
+	}
+
+	/*package*/ DispatchResult dispatchBurst(int maxHits, long deadline) {
+		return dispatch(maxHits, deadline);
+	}
+
+	/**
+	 * @return creation time of the oldest stored hit, 0 if there are no 
+	 *         hits or the time is unknown
+	 */
+	/*package*/ long getOldestHitTime() {
+		awaitInitialization();
+		synchronized (dataLock) {
+			long oldest = 0;
+			for (int i = 0; i < lanes.length; i++) {
+				Hit hit = Hit.fromBytes(lanes[i].peek());
+				if (hit != null && hit.time > 0
+						&& (oldest == 0 || hit.time < oldest)) {
+					oldest = hit.time;
+				}
+			}
+			return oldest;
+		}
+	}
+
+	/*package*/ int getStoredHitCount() {
+		awaitInitialization();
+		synchronized (dataLock) {
+			return storedSize();
+		}
+	}
+
+	/**
+	 * Caller must hold the dataLock.
+	 * 
+	 * @return number of the hits on all lanes
+	 */
+	private int storedSize() {
+		int size = 0;
+		for (int i = 0; i < lanes.length; i++) {
+			size += lanes[i].size();
+		}
+		return size;
+	}
+
+	private int storedBytes() {
+		int bytes = 0;
+		for (int i = 0; i < lanes.length; i++) {
+			bytes += lanes[i].bytes();
+		}
+		return bytes;
+	}
+
+	/**
+	 * Syncs the dead letters and then the lanes, so a hit moved to the dead
+	 * letters is not lost if the process dies in between. Caller must hold
+	 * the dataLock.
+	 */
+	private void syncStores() {
+		for (int i = 0; i < lanes.length; i++) {
+			lanes[i].sync();
+		}
+		deadLetters.sync();
+	}
+
+	/**
+	 * Syncs the stores, every sync of the lanes goes through here. The 
+	 * acknowledged hits are cleared from the checkpoint first, once the 
+	 * lanes are synced it no longer needs to cover them. Caller must hold 
+	 * the dataLock.
+	 */
+	private void syncLanes() {
+		checkpoint.clearAcknowledged();
+		syncStores();
+		unsyncedHits = 0;
+	}
+
+	/**
+	 * Picks the lane to claim the next hit from with a smooth weighted 
+	 * round robin over the lanes that have unclaimed hits. Ties go to the 
+	 * more important lane. Caller must hold the dataLock.
+	 * 
+	 * @param claims hits claimed but not committed on each lane
+	 * @return priority of the lane or -1 if there is nothing to claim
+	 */
+	private int nextLane(int[] claims) {
+		int total = 0;
+		int best = -1;
+		for (int i = 0; i < lanes.length; i++) {
+			if (lanes[i].size() <= claims[i]) {
+				continue;
+			}
+			laneCredits[i] += laneWeights[i];
+			total += laneWeights[i];
+			if (best < 0 || laneCredits[i] > laneCredits[best]) {
+				best = i;
+			}
+		}
+		if (best >= 0) {
+			laneCredits[best] -= total;
+		}
+		return best;
+	}
+
+	private void commitLanes(int[] claims) {
+		for (int i = 0; i < lanes.length; i++) {
+			if (claims[i] > 0) {
+				lanes[i].commit();
+			}
+		}
+	}
+
+	private void releaseLanes(int[] claims) {
+		for (int i = 0; i < lanes.length; i++) {
+			if (claims[i] > 0) {
+				lanes[i].release();
+			}
+		}
+	}
+
+	/**
+	 * Moves the claimed hit to the dead letters. Caller must hold the 
+	 * dataLock.
+	 */
+	private void moveToDeadLetters(HitStore lane, Hit hit) {
+		hit.attempts++;
+		deadLetters.append(hit.toBytes());
+		// durable before the checkpoint lets the recovery drop the hit
+		deadLetters.sync();
+		lane.commit();
+		checkpoint.acknowledge();
+	}
+
+	/**
+	 * Moves all hits to the new store and closes the old one. Caller must 
+	 * hold the dataLock.
+	 */
+	private void moveHits(HitStore from, HitStore to) {
+		if (from == to) {
+			return;
+		}
+		byte[] data;
+		while ((data = from.peek()) != null) {
+			if (!to.append(data)) {
+				stats.hitsEvicted(1);
+			}
+			from.remove();
+		}
+		to.sync();
+		from.close();
+	}
+
+	/*package*/ void submit(Hit hit) {
+		boolean dropped = false;
+		synchronized (dataLock) {
+			if (!initialized) {
+				// sampled once the sample bucket is known
+				if (pendingHits.size() == MAX_PENDING_HITS) {
+					pendingHits.removeElementAt(0);
+					dropped = true;
+				}
+				pendingHits.addElement(hit);
+				hit = null;
+			} else if (!isSampled(hit)) {
+				return;
+			}
+		}
+		stats.hitEnqueued();
+		if (dropped) {
+			hitsDropped(1);
+		}
+		if (hit != null) {
+			enqueue(hit);
+		}
+	}
+
+	/**
+	 * Caller must hold the dataLock.
+	 *
+	 * @return true if the user is tracked with the sample rate of the hit
+	 */
+	private boolean isSampled(Hit hit) {
+		int rate = hit.type == Hit.TYPE_PAGEVIEW ? pageViewSampleRate
+				: eventSampleRate;
+		return visit.sampleBucket < rate;
+	}
+
+	private void enqueue(Hit hit) {
+		if (immediate) {
+			dispatcher.enqueue(hit);
+		} else if (hit.priority == PRIORITY_CRITICAL || !stage.add(hit)) {
+			// critical hits are not kept in memory
+			storeHit(hit);
+		}
+	}
+
+	/*package*/ void storeHit(Hit hit) {
+		storeHits(new Hit[] { hit }, 1);
+	}
+
+	/**
+	 * Stores the hits with a single sync of the store.
+	 */
+	/*package*/ void storeHits(Hit[] hits, int count) {
+		byte[][] data = new byte[count][];
+		int dropped = 0;
+		for (int i = 0; i < count; i++) {
+			stampVisit(hits[i]);
+			try {
+				data[i] = hits[i].toBytes();
+			} catch (RuntimeException e) {
+				// a hit that can not be written must not drop the others
+				e.printStackTrace();
+				dropped++;
+			}
+		}
+		hitsDropped(dropped);
+		int evicted;
+		synchronized (dataLock) {
+			evicted = stats.getEvicted();
+			long start = System.currentTimeMillis();
+			int stored = 0;
+			boolean critical = false;
+			for (int i = 0; i < count; i++) {
+				if (data[i] == null) {
+					continue;
+				}
+				if (!evict(hits[i], data[i].length)) {
+					stats.hitsEvicted(1);
+					continue;
+				}
+				if (!append(hits[i], data[i])) {
+					stats.hitsEvicted(1);
+					continue;
+				}
+				if (hits[i].priority == PRIORITY_CRITICAL) {
+					critical = true;
+				}
+				stored++;
+			}
+			if (stored > 0) {
+				syncLanes();
+				long perHit = (System.currentTimeMillis() - start) / stored;
+				for (int i = 0; i < stored; i++) {
+					stats.stored(perHit);
+				}
+				scheduler.hitStored(storedSize(), critical);
+			}
+			evicted = stats.getEvicted() - evicted;
+		}
+		notifyDropped(evicted);
+	}
+
+	/**
+	 * Appends a hit to its lane. When the record store is full the stores
+	 * are synced, which gives back the space of the hits consumed or 
+	 * evicted since the last sync, and hits are evicted until the new hit
+	 * fits. Caller must hold the dataLock.
+	 *
+	 * @return false if the hit should be dropped instead
+	 */
+	private boolean append(Hit hit, byte[] data) {
+		HitStore lane = lanes[hit.priority];
+		if (lane.append(data)) {
+			return true;
+		}
+		syncLanes();
+		while (!lane.append(data)) {
+			if (!evictOne(hit)) {
+				return false;
+			}
+			syncLanes();
+		}
+		return true;
+	}
+
+	/**
+	 * Records the current visit on a hit that is stored for the first time,
+	 * it may be sent on a later visit.
+	 */
+	private void stampVisit(Hit hit) {
+		SessionData data = visit == null ? null : visit.session;
+		if (hit.visit == 0 && hit.type != Hit.TYPE_URL && data != null) {
+			long first = data.getFirstTimestamp();
+			hit.visit = data.getVisits();
+			hit.visitStart = (int) (data.getCurrTimestamp() - first);
+			hit.previousVisitStart = (int) (data.getPrevTimestamp() - first);
+		}
+	}
+
+	/*package*/ void hitsDropped(int count) {
+		for (int i = 0; i < count; i++) {
+			stats.hitDropped();
+		}
+		notifyDropped(count);
+	}
+
+	private void notifyDropped(int count) {
+		TrackerListener l = getListener();
+		if (l != null && count > 0) {
+			l.hitsDropped(count);
+		}
+	}
+
+	private TrackerListener getListener() {
+		synchronized (stats) {
+			return listener;
+		}
+	}
+
+	/**
+	 * Evicts stored hits until there is room for a new hit of the given 
+	 * length. The quota is shared by the lanes. Caller must hold the 
+	 * dataLock.
+	 *
+	 * @param hit new hit or null if only the quota is enforced
+	 * @return false if the new hit should be dropped instead
+	 */
+	private boolean evict(Hit hit, int length) {
+		int hits = hit == null ? 0 : 1;
+		int bytes = hit == null ? 0 : length + 2;
+		while ((maxStoredHits > 0 && storedSize() + hits > maxStoredHits)
+				|| (maxStoredBytes > 0 && storedBytes() + bytes > maxStoredBytes)) {
+			if (!evictOne(hit)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Evicts from the least important lane that has hits. A lane that is 
+	 * less important than the new hit loses its oldest hit, otherwise the
+	 * eviction policy decides.
+	 */
+	private boolean evictOne(Hit hit) {
+		for (int priority = PRIORITY_BULK; priority >= PRIORITY_CRITICAL; priority--) {
+			HitStore lane = lanes[priority];
+			if (lane.size() == 0) {
+				continue;
+			}
+			if (hit != null && priority > hit.priority) {
+				if (lane.remove()) {
+					stats.hitsEvicted(1);
+					return true;
+				}
+				// only claimed hits left
+				continue;
+			}
+			return evictOne(lane, hit);
+		}
+		return false;
+	}
+
+	private boolean evictOne(HitStore lane, Hit hit) {
+		switch (evictionPolicy) {
+		case EVICT_DROP_NEWEST:
+			if (hit != null) {
+				return false;
+			}
+			break;
+		case EVICT_KEEP_PAGEVIEWS:
+			if (lane.dropFirst(Hit.TYPE_EVENT)
+					|| lane.dropFirst(Hit.TYPE_TIMING)) {
+				stats.hitsEvicted(1);
+				return true;
+			}
+			if (hit != null && (hit.type == Hit.TYPE_EVENT
+					|| hit.type == Hit.TYPE_TIMING)) {
+				return false;
+			}
+			break;
+		case EVICT_THIN:
+			int thinned = lane.thin();
+			stats.hitsEvicted(thinned);
+			return thinned > 0;
+		}
+		if (!lane.remove()) {
+			return false;
+		}
+		stats.hitsEvicted(1);
+		return true;
+	}
+
+	/**
+	 * Sends a hit from the immediate mode queue. Hits that can not be sent
+	 * now are stored to be retried by dispatching.
+	 */
+	/*package*/ void sendImmediate(Hit hit) {
+		if (breaker.delay(System.currentTimeMillis()) > 0) {
+			storeHit(hit);
+			return;
+		}
+		try {
+			sendHit(hit);
+			breaker.onSuccess();
+		} catch (HttpStatusException e) {
+			if (e.isPermanent()) {
+				hit.attempts++;
+				synchronized (dataLock) {
+					deadLetters.append(hit.toBytes());
+					deadLetters.sync();
+				}
+				return;
+			}
+			breaker.onFailure(System.currentTimeMillis());
+			hit.attempts++;
+			storeHit(hit);
+		} catch (SecurityException e) {
+			// the connection was not allowed this time
+			breaker.onFailure(System.currentTimeMillis());
+			storeHit(hit);
+		} catch (RuntimeException e) {
+			// not a network failure, the hit can not be sent at all
+			throw e;
+		} catch (Exception e) {
+			breaker.onFailure(System.currentTimeMillis());
+			storeHit(hit);
+		}
+	}
+
+	/*package*/ void sendHit(Hit hit) throws Exception {
+		long start = System.currentTimeMillis();
+		String url = buildUrl(hit);
+		long built = System.currentTimeMillis();
+		stats.encoded(built - start);
+		try {
+			makeRequest(url);
+		} catch (Exception e) {
+			stats.hitFailed(System.currentTimeMillis() - built);
+			throw e;
+		}
+		stats.hitSent(System.currentTimeMillis() - built);
+	}
+
+	/**
+	 * Creates the complete tracking url for the hit by appending the hit
+	 * specific parameters to the {@link #getRootPath()}. Called once the
+	 * tracker is initialized, it takes no lock.
+	 */
+	private String buildUrl(Hit hit) {
+		if (hit.type == Hit.TYPE_URL) {
+			return hit.page;
+		}
+		Visit v = visit;
+		StringBuffer path = new StringBuffer(v.rootPath.length() + 192);
+		path.append(v.rootPath);
+		path.append("&utmac=").append(
+				hit.account == null ? accountId : hit.account);
+		String visitCookie = getCookie(v, hit);
+		if (visitCookie != null) {
+			path.append("&utmcc=").append(visitCookie);
+		}
+		// ID to prevent caching
+		path.append("&utmn=").append(random.nextInt() & 0x7fffffff);
+		if (hit.time > 0) {
+			// queue time, how long ago the hit was tracked
+			long queued = System.currentTimeMillis() - hit.time;
+			if (queued > 0) {
+				path.append("&utmqt=").append(queued);
+			}
+		}
+		if (hit.type == Hit.TYPE_PAGEVIEW) {
+			// document Path
+			path.append("&utmp=");
+			encodedCache.encode(hit.page, path);
+			return path.toString();
+		}
+		path.append("&utmt=event");
+		if (hit.type == Hit.TYPE_TIMING) {
+			// User timing data, the second part is the sample rate
+			path.append("&utme=14(90!");
+			encodedCache.encode(hit.action, path);
+			path.append("*");
+			encodedCache.encode(hit.category, path);
+			path.append("*");
+			path.append(hit.value);
+			appendLabel(hit, path);
+			path.append(")(90!");
+			path.append(eventSampleRate);
+			path.append(")");
+			return path.toString();
+		}
+		// Event data
+		path.append("&utme=5(");
+		encodedCache.encode(hit.category, path);
+		path.append("*");
+		encodedCache.encode(hit.action, path);
+		appendLabel(hit, path);
+		path.append(")");
+		if (hit.value > -1) {
+			path.append("(");
+			path.append(hit.value);
+			path.append(")");
+		}
+		return path.toString();
+	}
+
+	private void appendLabel(Hit hit, StringBuffer path) {
+		if (hit.label != null) {
+			path.append("*");
+			encodedCache.encode(hit.label, path);
+		}
+		boolean countInLabel = hit.type == Hit.TYPE_EVENT ? eventCountInLabel
+				: timingCountInLabel;
+		if (hit.count > 1 && countInLabel) {
+			// occurrences of an aggregated event or timing
+			path.append(hit.label == null ? "*x" : "+x");
+			path.append(hit.count);
+		}
+	}
+
+	/**
+	 * Runs on a background thread after the instance is created.
+	 */
+	private void initialize(MIDlet midlet) {
+		try {
+			initScreen(midlet);
+			initFromSytemProperties();
+			SessionData data = initSessionData();
+			Visit v = new Visit(createRootPath(), createCookie(data,
+					data.getVisits(), data.getPrevTimestamp(), data
+							.getCurrTimestamp()), data, data.getUserId() % 100);
+			synchronized (dataLock) {
+				visit = v;
+			}
+			initJournal();
+			applyStoreSettings();
+		} catch (RuntimeException e) {
+			// the tracker still works, without the data that failed to load
+			e.printStackTrace();
+		} finally {
+			applyFallbackStores();
+			drainPendingHits();
+		}
+	}
+
+	/**
+	 * Stores the hits tracked during the initialization. New hits keep 
+	 * waiting behind them until all are stored so the order is kept.
+	 */
+	private void drainPendingHits() {
+		synchronized (dataLock) {
+			if (visit == null) {
+				// the session data could not be loaded, the hits are sent
+				// without a cookie
+				visit = new Visit(createRootPath(), null, null, 0);
+			}
+		}
+		while (true) {
+			Hit hit;
+			synchronized (dataLock) {
+				if (pendingHits.isEmpty()) {
+					initialized = true;
+					pendingHits = null;
+					dataLock.notifyAll();
+					return;
+				}
+				hit = (Hit) pendingHits.elementAt(0);
+				pendingHits.removeElementAt(0);
+				// the sample bucket was not known when the hit was tracked
+				if (!isSampled(hit)) {
+					continue;
+				}
+			}
+			try {
+				enqueue(hit);
+			} catch (RuntimeException e) {
+				// the waiting threads are released whatever happens
+				e.printStackTrace();
+				hitsDropped(1);
+			}
+		}
+	}
+
+	/**
+	 * Waits until the session data and the stored hits are loaded.
+	 */
+	private void awaitInitialization() {
+		synchronized (dataLock) {
+			while (!initialized) {
+				try {
+					dataLock.wait();
+				} catch (InterruptedException e) {
+					//ignored
+				}
+			}
+		}
+	}
+
+	private void initScreen(MIDlet midlet) {
+		// a temporary canvas
+		Canvas c = new Canvas() {
+			protected void paint(Graphics arg0) {
+			}
+		};
+		screenWidth = c.getWidth();
+		screenHeight = c.getHeight();
+		int colors = Display.getDisplay(midlet).numColors();
+		colorDepth = 1;
+		while (colorDepth < 32 && colors >> colorDepth > 1) {
+			colorDepth++;
+		}
+	}
+
+	private void initJournal() {
+		lanes[PRIORITY_CRITICAL] = openJournal(CRITICAL_JOURNAL_NAME);
+		lanes[PRIORITY_NORMAL] = openJournal(JOURNAL_NAME);
+		lanes[PRIORITY_BULK] = openJournal(BULK_JOURNAL_NAME);
+		HitStore journal = lanes[PRIORITY_NORMAL];
+		deadLetters = openJournal(DEAD_LETTER_NAME);
+		checkpoint.open();
+		// move the events stored by the earlier versions to the journal
+		Vector urls = AnalyticsDataPersistenceUtils.readEventDataUrls();
+		if (urls.size() > 0) {
+			for (int i = 0; i < urls.size(); i++) {
+				journal.append(Hit.url((String) urls.elementAt(i)).toBytes());
+			}
+			journal.sync();
+			AnalyticsDataPersistenceUtils.deleteEventData();
+		}
+	}
+
+	/**
+	 * @return the opened journal, or a store in memory if the record store
+	 *         can not be opened
+	 */
+	private static HitStore openJournal(String name) {
+		HitJournal journal = new HitJournal(name);
+		if (journal.open()) {
+			return journal;
+		}
+		HitStore store = new MemoryHitStore();
+		store.open();
+		return store;
+	}
+
+	/**
+	 * Makes sure that the tracker has stores when the initialization failed
+	 * before it applied them. The stores set by the application are used
+	 * as they are, the others are kept in memory.
+	 */
+	private void applyFallbackStores() {
+		synchronized (dispatchLock) {
+			synchronized (dataLock) {
+				if (storesOpen) {
+					return;
+				}
+				for (int i = 0; i < lanes.length; i++) {
+					lanes[i] = fallbackStore(lanes[i], pendingLanes[i]);
+					pendingLanes[i] = null;
+				}
+				deadLetters = fallbackStore(deadLetters, pendingDeadLetters);
+				pendingDeadLetters = null;
+				storesOpen = true;
+			}
+		}
+	}
+
+	private static HitStore fallbackStore(HitStore opened, HitStore pending) {
+		if (pending != null) {
+			return pending;
+		}
+		if (opened != null) {
+			return opened;
+		}
+		HitStore store = new MemoryHitStore();
+		store.open();
+		return store;
+	}
+
+	/**
+	 * Applies the stores and the storage quota that were set while the 
+	 * journals were being opened, the setters do not wait for them, and
+	 * recovers the dispatch that was cut short on the stores that are used
+	 * from now on.
+	 */
+	private void applyStoreSettings() {
+		int evicted;
+		synchronized (dispatchLock) {
+			synchronized (dataLock) {
+				evicted = stats.getEvicted();
+				for (int i = 0; i < lanes.length; i++) {
+					if (pendingLanes[i] != null) {
+						moveHits(lanes[i], pendingLanes[i]);
+						lanes[i] = pendingLanes[i];
+						pendingLanes[i] = null;
+					}
+				}
+				if (pendingDeadLetters != null) {
+					moveHits(deadLetters, pendingDeadLetters);
+					deadLetters = pendingDeadLetters;
+					pendingDeadLetters = null;
+				}
+				recoverDispatch();
+				evict(null, 0);
+				syncLanes();
+				storesOpen = true;
+				int stored = storedSize();
+				if (stored > 0) {
+					scheduler.hitStored(stored, false);
+				}
+				evicted = stats.getEvicted() - evicted;
+			}
+		}
+		notifyDropped(evicted);
+	}
+
+	/**
+	 * Drops the hits that were acknowledged before the application was 
+	 * killed but not yet synced. The hits that were in flight may or may 
+	 * not have reached the server. They are sent again but counted as an 
+	 * attempt, so that a hit that gets the application killed every time 
+	 * ends up on the dead letters. Caller must hold the dataLock.
+	 */
+	private void recoverDispatch() {
+		for (int i = 0; i < lanes.length; i++) {
+			HitStore lane = lanes[i];
+			if (checkpoint.claimAcknowledged(i, lane)) {
+				lane.commit();
+			}
+			byte[][] sent = checkpoint.claimInFlight(i, lane);
+			if (sent == null) {
+				continue;
+			}
+			for (int j = 0; j < sent.length; j++) {
+				byte[] data = sent[j];
+				data[Hit.ATTEMPTS_OFFSET]++;
+				if (data[Hit.ATTEMPTS_OFFSET] >= maxAttempts) {
+					deadLetters.append(data);
+				} else if (!lane.append(data)) {
+					stats.hitsEvicted(1);
+				}
+			}
+			lane.commit();
+		}
+		// the dead letters are synced before the lanes
+		deadLetters.sync();
+		checkpoint.clear();
+		syncLanes();
+	}
+
+	private SessionData initSessionData() {
+		SessionData data = AnalyticsDataPersistenceUtils.readSessionData();
+		long now = System.currentTimeMillis() / 1000L; // Analytics uses times
+														// divided by 1000
+		if (data == null) {
+			data = new SessionData();
+			data.setCurrTimestamp(now);
+			data.setPrevTimestamp(now);
+			data.setFirstTimestamp(now);
+			data.setVisits(1);
+			Random r = new Random();
+			data.setUserId(r.nextInt(9999999));
+		} else {
+			data.setPrevTimestamp(data.getCurrTimestamp());
+			data.setCurrTimestamp(now);
+			data.setVisits(data.getVisits() + 1);
+		}
+		AnalyticsDataPersistenceUtils.storeData(data);
+		return data;
+	}
+
+	private void initFromSytemProperties() {
+		locale = System.getProperty("microedition.locale");
+		hostname = System.getProperty("microedition.hostname");
+
+		String platform = System.getProperty("microedition.platform");
+		String configuration = System.getProperty("microedition.configuration");
+		String profiles = System.getProperty("microedition.profiles");
+		StringBuffer userAgentBuffer = new StringBuffer();
+		userAgentBuffer.append(platform);
+		userAgentBuffer.append(" (Profile/").append(profiles);
+		userAgentBuffer.append(" Configuration/").append(configuration);
+		userAgentBuffer.append("; ").append(locale);
+		userAgentBuffer.append(")");
+		userAgent = userAgentBuffer.toString();
+	}
+
+	/*package*/ void makeRequest(String path) throws Exception {
+		getTransport().send(path, userAgent);
+	}
+
+	private synchronized HitTransport getTransport() {
+		return transport;
+	}
+
+	/**
+	 * @return url encoded __utma cookie of the visit the hit was tracked on,
+	 *         null if the session data was not loaded
+	 */
+	private static String getCookie(Visit v, Hit hit) {
+		SessionData data = v.session;
+		if (data == null) {
+			return null;
+		}
+		if (hit.visit > 0 && hit.visit != data.getVisits()) {
+			// tracked on an earlier visit
+			long first = data.getFirstTimestamp();
+			return createCookie(data, hit.visit, first
+					+ hit.previousVisitStart, first + hit.visitStart);
+		}
+		return v.cookie;
+	}
+
+	private static String createCookie(SessionData data, int visits,
+			long previous, long current) {
+		StringBuffer cookieString = new StringBuffer();
+		cookieString.append("__utma=");
+		cookieString.append("999").append(".");
+		cookieString.append(data.getUserId()).append(".");
+		cookieString.append(data.getFirstTimestamp()).append(".");// first
+		cookieString.append(previous).append("."); // previous
+		cookieString.append(current).append("."); // current
+		cookieString.append(visits);// visits
+		return UrlEncoder.encode(cookieString.toString());
+	}
+
+	/**
+	 * Returns the beginning of the tracking .gif url. This part of the url 
+	 * is the same for all hits and all web properties, the cookie of the 
+	 * visit is added by {@link #buildUrl(Hit)}. It is
+	 * created once after the session data is loaded. Refer to <a href=
+	 * "http://code.google.com/apis/analytics/docs/tracking/gaTrackingTroubleshooting.html#gifParameters"
+	 * > analytics document</a> for details of the parameters
+	 * 
+	 * @return beginning part of the tracking gif url
+	 */
+	/*package*/ String getRootPath() {
+		awaitInitialization();
+		return visit.rootPath;
+	}
+
+	private String createRootPath() {
+		StringBuffer path = new StringBuffer();
+		path.append("http://www.google-analytics.com/__utm.gif");
+		path.append("?utmwv=4.4ma"); // Tracking code version
+		// Language encoding, UrlEncoder always writes UTF-8
+		path.append("&utmcs=UTF-8");
+		// Screen size
+		path.append("&utmsr=");
+		path.append(String.valueOf(screenWidth));
+		path.append("x");
+		path.append(String.valueOf(screenHeight));
+		// Screen color depth
+		path.append("&utmsc=");
+		path.append(String.valueOf(colorDepth)).append("-bit");
+		// hostname
+		path.append("&utmhn=").append(hostname);
+		// language
+		path.append("&utmul=");
+		path.append(locale);
+		return path.toString();
 	}
 }
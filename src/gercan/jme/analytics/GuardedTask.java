@@ -0,0 +1,43 @@
+/*************************************************************************
+* Copyright 2010 Gorkem Ercan
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*
+**************************************************************************/
+package gercan.jme.analytics;
+
+import java.util.TimerTask;
+
+/**
+ * Task on the timer that the background jobs of the tracker share. A task
+ * that throws cancels the {@link java.util.Timer} and every task on it, so
+ * the runtime exceptions of a task are printed instead.
+ *
+ * @author Gorkem Ercan
+ *
+ */
+abstract /*package*/ class GuardedTask extends TimerTask {
+
+	public final void run() {
+		try {
+			runTask();
+		} catch (RuntimeException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Does the job of the task on the timer thread.
+	 */
+	abstract void runTask();
+}
@@ -0,0 +1,212 @@
+/*************************************************************************
+* Copyright 2010 Gorkem Ercan
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*
+**************************************************************************/
+package gercan.jme.analytics;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * A single pageview, event or timing. Only the hit type and its fields are kept, the
+ * session specific part of the tracking url is added when the hit is
+ * dispatched. Stored on the {@link HitJournal} in a compact binary form:
+ * <pre>
+ * pageview : type(byte) attempts(byte) page(utf) [time(long) [account(utf) [visit]]]
+ * event    : type(byte) attempts(byte) category(utf) action(utf) hasLabel(boolean) [label(utf)] value(int) count(int) [time(long) [account(utf) [visit]]]
+ * visit    : visits(int) visitStart(int) previousVisitStart(int)
+ * url      : type(byte) attempts(byte) url(utf)
+ * </pre>
+ * timing hits are stored as events, with the variable as the action and
+ * the time in milliseconds as the value.
+ * time is when the hit was tracked, it is missing on the hits stored by the
+ * earlier versions. account is the web property ID of a
+ * {@link PropertyTracker}, it is missing on the hits of the
+ * {@link GoogleAnalytics} instance, it is empty if a visit follows.
+ * visit is the visit the hit was tracked on, with its start times in
+ * seconds after the first visit, so that the hits sent on a later visit
+ * carry the cookie of their own visit. It is missing on the hits stored by
+ * the earlier versions, they are sent with the cookie of the current visit.
+ * count is the number of occurrences collapsed into an event by
+ * {@link EventAggregator}, or the number of times summarized by a timing
+ * hit of {@link TimingRecorder}. attempts is the number of failed delivery attempts, it is always at
+ * {@link #ATTEMPTS_OFFSET} so that it can be updated in place.
+ *
+ * @author Gorkem Ercan
+ *
+ */
+final /*package*/ class Hit {
+	static final byte TYPE_PAGEVIEW = 1;
+	static final byte TYPE_EVENT = 2;
+	/*
+	 * complete tracking url, used for the hits stored by the earlier versions
+	 */
+	static final byte TYPE_URL = 3;
+	static final byte TYPE_TIMING = 4;
+	static final int ATTEMPTS_OFFSET = 1;
+
+	byte type;
+	byte attempts;
+	/*
+	 * page path for pageviews or the complete url
+	 */
+	String page;
+	String category;
+	/*
+	 * event action or the variable of a timing
+	 */
+	String action;
+	String label;
+	int value;
+	int count = 1;
+	/*
+	 * creation time in milliseconds, 0 if unknown
+	 */
+	long time;
+	/*
+	 * web property ID, null for the ID of the GoogleAnalytics instance
+	 */
+	String account;
+	/*
+	 * lane of the hit, not serialized, the store it is on tells it
+	 */
+	int priority = GoogleAnalytics.PRIORITY_NORMAL;
+	/*
+	 * number of the visit the hit was tracked on, 0 if unknown
+	 */
+	int visit;
+	/*
+	 * start of the visit and of the previous visit in seconds after the
+	 * first visit
+	 */
+	int visitStart;
+	int previousVisitStart;
+
+	static Hit pageView(String page) {
+		Hit hit = new Hit();
+		hit.type = TYPE_PAGEVIEW;
+		hit.page = page;
+		hit.time = System.currentTimeMillis();
+		return hit;
+	}
+
+	static Hit event(String category, String action, String label, int value) {
+		Hit hit = new Hit();
+		hit.type = TYPE_EVENT;
+		hit.category = category;
+		hit.action = action;
+		hit.label = label;
+		hit.value = value;
+		hit.time = System.currentTimeMillis();
+		return hit;
+	}
+
+	static Hit timing(String category, String variable, String label,
+			int millis) {
+		Hit hit = event(category, variable, label, millis);
+		hit.type = TYPE_TIMING;
+		return hit;
+	}
+
+	static Hit url(String url) {
+		Hit hit = new Hit();
+		hit.type = TYPE_URL;
+		hit.page = url;
+		return hit;
+	}
+
+	byte[] toBytes() {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(32);
+		DataOutputStream out = new DataOutputStream(bytes);
+		try {
+			out.writeByte(type);
+			out.writeByte(attempts);
+			if (type == TYPE_EVENT || type == TYPE_TIMING) {
+				out.writeUTF(category);
+				out.writeUTF(action);
+				out.writeBoolean(label != null);
+				if (label != null) {
+					out.writeUTF(label);
+				}
+				out.writeInt(value);
+				out.writeInt(count);
+			} else {
+				out.writeUTF(page);
+			}
+			if (type != TYPE_URL) {
+				out.writeLong(time);
+				if (account != null || visit > 0) {
+					out.writeUTF(account == null ? "" : account);
+				}
+				if (visit > 0) {
+					out.writeInt(visit);
+					out.writeInt(visitStart);
+					out.writeInt(previousVisitStart);
+				}
+			}
+		} catch (IOException e) {
+			return null;
+		}
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * Reads a hit written with {@link #toBytes()}.
+	 *
+	 * @return hit or null if the data is not a valid hit
+	 */
+	static Hit fromBytes(byte[] data) {
+		if (data == null) {
+			return null;
+		}
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+		try {
+			Hit hit = new Hit();
+			hit.type = in.readByte();
+			hit.attempts = in.readByte();
+			if (hit.type == TYPE_EVENT || hit.type == TYPE_TIMING) {
+				hit.category = in.readUTF();
+				hit.action = in.readUTF();
+				if (in.readBoolean()) {
+					hit.label = in.readUTF();
+				}
+				hit.value = in.readInt();
+				hit.count = in.readInt();
+			} else if (hit.type == TYPE_PAGEVIEW || hit.type == TYPE_URL) {
+				hit.page = in.readUTF();
+			} else {
+				return null;
+			}
+			if (hit.type != TYPE_URL && in.available() >= 8) {
+				hit.time = in.readLong();
+				if (in.available() > 0) {
+					String account = in.readUTF();
+					hit.account = account.length() == 0 ? null : account;
+				}
+				if (in.available() >= 12) {
+					hit.visit = in.readInt();
+					hit.visitStart = in.readInt();
+					hit.previousVisitStart = in.readInt();
+				}
+			}
+			return hit;
+		} catch (IOException e) {
+			return null;
+		}
+	}
+}
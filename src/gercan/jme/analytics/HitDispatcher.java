@@ -0,0 +1,150 @@
+/*************************************************************************
+* Copyright 2010 Gorkem Ercan
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*
+**************************************************************************/
+package gercan.jme.analytics;
+
+/**
+ * Bounded in-memory queue of hits that is drained by a single
+ * background thread. Used on the immediate mode so that the tracking calls
+ * do not wait for the network.
+ *
+ * @author Gorkem Ercan
+ *
+ */
+final /*package*/ class HitDispatcher implements Runnable {
+
+	private final GoogleAnalytics tracker;
+	private Hit[] queue;
+	private int head;
+	private int count;
+	private int overflowPolicy;
+	private Thread thread;
+
+	HitDispatcher(GoogleAnalytics tracker, int capacity, int overflowPolicy) {
+		this.tracker = tracker;
+		this.queue = new Hit[capacity];
+		this.overflowPolicy = overflowPolicy;
+	}
+
+	/**
+	 * Adds the hit to the queue and wakes up the dispatcher thread.
+	 * Never blocks on the network.
+	 *
+	 * @param hit hit to send
+	 */
+	void enqueue(Hit hit) {
+		Hit spilled = null;
+		boolean dropped = false;
+		synchronized (this) {
+			if (count == queue.length) {
+				switch (overflowPolicy) {
+				case GoogleAnalytics.OVERFLOW_DROP_OLDEST:
+					queue[head] = null;
+					head = (head + 1) % queue.length;
+					count--;
+					dropped = true;
+					break;
+				case GoogleAnalytics.OVERFLOW_SPILL_TO_STORE:
+					spilled = hit;
+					break;
+				default:
+					dropped = true;
+					hit = null;
+				}
+			}
+			if (spilled == null && hit != null) {
+				queue[(head + count) % queue.length] = hit;
+				count++;
+				if (thread == null) {
+					thread = new Thread(this);
+					thread.setPriority(Thread.MIN_PRIORITY);
+					thread.start();
+				}
+				notify();
+			}
+		}
+		if (dropped) {
+			tracker.hitsDropped(1);
+		}
+		if (spilled != null) {
+			tracker.storeHit(spilled);
+		}
+	}
+
+	/**
+	 * Changes the capacity of the queue. If the new capacity is smaller
+	 * than the number of the queued hits, the oldest hits are dropped.
+	 *
+	 * @param capacity new capacity
+	 */
+	synchronized void setCapacity(int capacity) {
+		Hit[] newQueue = new Hit[capacity];
+		while (count > capacity) {
+			queue[head] = null;
+			head = (head + 1) % queue.length;
+			count--;
+		}
+		for (int i = 0; i < count; i++) {
+			newQueue[i] = queue[(head + i) % queue.length];
+		}
+		queue = newQueue;
+		head = 0;
+	}
+
+	synchronized int getCapacity() {
+		return queue.length;
+	}
+
+	synchronized void setOverflowPolicy(int overflowPolicy) {
+		this.overflowPolicy = overflowPolicy;
+	}
+
+	synchronized int getOverflowPolicy() {
+		return overflowPolicy;
+	}
+
+	synchronized int size() {
+		return count;
+	}
+
+	public void run() {
+		while (true) {
+			Hit hit;
+			synchronized (this) {
+				while (count == 0) {
+					try {
+						wait();
+					} catch (InterruptedException e) {
+						//ignored
+					}
+				}
+				hit = queue[head];
+				queue[head] = null;
+				head = (head + 1) % queue.length;
+				count--;
+			}
+			try {
+				tracker.sendImmediate(hit);
+			} catch (RuntimeException e) {
+				// the thread must survive a bad hit, the queue has no other
+				// consumer
+				e.printStackTrace();
+				tracker.hitsDropped(1);
+			}
+		}
+	}
+
+}
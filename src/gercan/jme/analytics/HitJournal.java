@@ -0,0 +1,646 @@
+/*************************************************************************
+* Copyright 2010 Gorkem Ercan
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*
+**************************************************************************/
+package gercan.jme.analytics;
+
+import javax.microedition.rms.RecordEnumeration;
+import javax.microedition.rms.RecordStore;
+import javax.microedition.rms.RecordStoreException;
+import javax.microedition.rms.RecordStoreFullException;
+
+/**
+ * <p>
+ * Append-only journal of queued hits on a {@link RecordStore}. Hits are
+ * packed into segments, each segment is a single record. New hits are
+ * appended to the last (tail) segment, when it is full a new segment is
+ * started. Hits are consumed from the first (head) segment and a head
+ * pointer is advanced, segments that are fully consumed are deleted.
+ * </p>
+ * <p>
+ * Appended hits are written when the tail segment is full or on the next
+ * {@link #sync()}, so the hits appended between two syncs cost a single
+ * record update.
+ * </p>
+ * <p>
+ * Hits can also be dropped from the middle of the journal, the first byte of
+ * a dropped hit is overwritten with {@link #TOMBSTONE} and the hit is skipped
+ * when the head reaches it.
+ * </p>
+ * <p>
+ * The hits at the head can be claimed for sending. Claimed hits stay on the
+ * journal until they are committed or released, they are never dropped by
+ * {@link #remove()}, {@link #dropFirst(byte)} or {@link #thin()}.
+ * </p>
+ * <p>
+ * Record layout:
+ * <pre>
+ * segment : 'S' count(int) { length(short) payload(bytes) }*
+ * head    : 'H' headSegmentId(int) headIndex(int)
+ * </pre>
+ * </p>
+ *
+ * @author Gorkem Ercan
+ *
+ */
+final /*package*/ class HitJournal implements HitStore {
+	/**
+	 * First byte of a dropped hit. Hit payloads must not start with it.
+	 */
+	static final byte TOMBSTONE = 0;
+
+	private static final byte SEGMENT = 'S';
+	private static final byte HEAD = 'H';
+	private static final int ANY = -1;
+	private static final int SEGMENT_HEADER = 5;
+	private static final int SEGMENT_SIZE = 2048;
+
+	private final String name;
+	private RecordStore store;
+	private int headRecordId;
+
+	/*
+	 * record ids of the segments, oldest first. Last one is the tail.
+	 */
+	private IntQueue segmentIds;
+	private IntQueue reclaimedIds;
+	/*
+	 * live hits and their bytes, tombstones are not counted
+	 */
+	private int size;
+	private int bytes;
+
+	private byte[] tailData;
+	private int tailLength;
+	private int tailCount;
+	private int tailId;
+	/*
+	 * tail segment has hits that are not written yet
+	 */
+	private boolean tailDirty;
+
+	private byte[] headData;
+	private int headId;
+	private int headPos;
+	private int headIndex;
+	private int headCount;
+	private boolean headDirty;
+	/*
+	 * number of the live hits at the head that are claimed
+	 */
+	private int claimed;
+
+	HitJournal(String name) {
+		this.name = name;
+	}
+
+	/**
+	 * Opens the record store and recovers the head and tail segments.
+	 * Reads every segment once to count the queued hits.
+	 *
+	 * @return false if the record store can not be opened
+	 */
+	public boolean open() {
+		try {
+			store = RecordStore.openRecordStore(name, true);
+			segmentIds = new IntQueue(16);
+			reclaimedIds = new IntQueue(4);
+			int[] ids = sortedRecordIds();
+			int savedHeadId = 0;
+			int savedHeadIndex = 0;
+			for (int i = 0; i < ids.length; i++) {
+				byte[] data = store.getRecord(ids[i]);
+				if (data == null || data.length == 0) {
+					continue;
+				}
+				if (data[0] == HEAD && data.length >= 9) {
+					headRecordId = ids[i];
+					savedHeadId = readInt(data, 1);
+					savedHeadIndex = readInt(data, 5);
+				} else if (data[0] == SEGMENT && data.length >= SEGMENT_HEADER) {
+					segmentIds.add(ids[i]);
+				}
+			}
+			// drop the segments before the saved head, they were consumed
+			// but not reclaimed yet.
+			while (!segmentIds.isEmpty() && segmentIds.peek() < savedHeadId) {
+				store.deleteRecord(segmentIds.poll());
+			}
+			if (segmentIds.isEmpty() || segmentIds.peek() != savedHeadId) {
+				savedHeadIndex = 0;
+			}
+			if (segmentIds.isEmpty()) {
+				newTailSegment();
+			}
+			size = 0;
+			bytes = 0;
+			for (int i = 0; i < segmentIds.size(); i++) {
+				int id = segmentIds.get(i);
+				byte[] data = store.getRecord(id);
+				int count = readInt(data, 1);
+				if (i == segmentIds.size() - 1) {
+					tailId = id;
+					tailData = new byte[SEGMENT_SIZE > data.length ? SEGMENT_SIZE
+							: data.length];
+					System.arraycopy(data, 0, tailData, 0, data.length);
+					tailLength = data.length;
+					tailCount = count;
+				}
+				if (i == 0) {
+					loadHead(id);
+					while (headIndex < savedHeadIndex && headIndex < headCount) {
+						skipHead();
+					}
+					countLive(data, headPos, headIndex, count);
+				} else {
+					countLive(data, SEGMENT_HEADER, 0, count);
+				}
+			}
+			return true;
+		} catch (RecordStoreException e) {
+			e.printStackTrace();
+			store = null;
+			return false;
+		}
+	}
+
+	public boolean isOpen() {
+		return store != null;
+	}
+
+	/**
+	 * Appends a hit to the tail segment. The hit is persisted with the next
+	 * {@link #sync()}.
+	 *
+	 * @param hit payload, at most 65535 bytes
+	 * @return false if the hit could not be written
+	 */
+	public boolean append(byte[] hit) {
+		if (store == null) {
+			return false;
+		}
+		try {
+			int entryLength = hit.length + 2;
+			if (tailCount > 0 && tailLength + entryLength > SEGMENT_SIZE) {
+				newTailSegment();
+			}
+			if (tailLength + entryLength > tailData.length) {
+				byte[] grown = new byte[tailLength + entryLength];
+				System.arraycopy(tailData, 0, grown, 0, tailLength);
+				tailData = grown;
+			}
+			tailData[tailLength] = (byte) (hit.length >> 8);
+			tailData[tailLength + 1] = (byte) hit.length;
+			System.arraycopy(hit, 0, tailData, tailLength + 2, hit.length);
+			writeInt(tailData, 1, tailCount + 1);
+			tailDirty = true;
+			tailLength += entryLength;
+			tailCount++;
+			size++;
+			bytes += entryLength;
+			if (headId == tailId) {
+				headCount = tailCount;
+			}
+			return true;
+		} catch (RecordStoreException e) {
+			writeInt(tailData, 1, tailCount);
+			return false;
+		}
+	}
+
+	/**
+	 * Returns the hit at the head of the journal without consuming it.
+	 *
+	 * @return hit payload or null if the journal is empty
+	 */
+	public byte[] peek() {
+		if (size == 0) {
+			return null;
+		}
+		skipTombstones();
+		byte[] data = headData();
+		int length = entryLength(data, headPos);
+		byte[] hit = new byte[length];
+		System.arraycopy(data, headPos + 2, hit, 0, length);
+		return hit;
+	}
+
+	/**
+	 * Claims the oldest hit that is not claimed yet for sending.
+	 *
+	 * @return hit payload or null if all hits are claimed
+	 */
+	public byte[] claim() {
+		if (size <= claimed) {
+			return null;
+		}
+		byte[] hit;
+		if (claimed == 0) {
+			hit = peek();
+		} else {
+			try {
+				hit = seek(claimed, ANY, false);
+			} catch (RecordStoreException e) {
+				e.printStackTrace();
+				return null;
+			}
+		}
+		if (hit != null) {
+			claimed++;
+		}
+		return hit;
+	}
+
+	/**
+	 * Consumes the claimed hits. The new head is persisted with the next
+	 * {@link #sync()}.
+	 */
+	public void commit() {
+		while (claimed > 0) {
+			claimed--;
+			removeHead();
+		}
+	}
+
+	/**
+	 * Gives up the claims, the hits stay at the head.
+	 */
+	public void release() {
+		claimed = 0;
+	}
+
+	/**
+	 * Drops the oldest hit that is not claimed. The new head is persisted
+	 * with the next {@link #sync()}.
+	 *
+	 * @return false if there is no hit to drop
+	 */
+	public boolean remove() {
+		if (size == 0) {
+			return false;
+		}
+		if (claimed > 0) {
+			return dropFirst(ANY);
+		}
+		removeHead();
+		return true;
+	}
+
+	/**
+	 * Overwrites a byte of the hit at the head and persists its segment.
+	 *
+	 * @param offset offset in the hit payload
+	 * @param value new value
+	 */
+	public void updateHead(int offset, byte value) {
+		if (size == 0) {
+			return;
+		}
+		skipTombstones();
+		byte[] data = headData();
+		data[headPos + 2 + offset] = value;
+		try {
+			writeSegment(headId, data);
+		} catch (RecordStoreException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Drops the oldest hit, that is not claimed, whose payload starts with
+	 * the given byte.
+	 *
+	 * @param type first byte of the payload
+	 * @return false if there is no such hit
+	 */
+	public boolean dropFirst(byte type) {
+		return dropFirst((int) type);
+	}
+
+	private boolean dropFirst(int type) {
+		if (size <= claimed) {
+			return false;
+		}
+		try {
+			return seek(claimed, type, true) != null;
+		} catch (RecordStoreException e) {
+			e.printStackTrace();
+			return false;
+		}
+	}
+
+	/**
+	 * Walks the live hits from the head, skips the given number of them and
+	 * finds the first one whose payload starts with the type.
+	 *
+	 * @param skip live hits to skip
+	 * @param type first byte of the payload or {@link #ANY}
+	 * @param drop true to drop the hit
+	 * @return copy of the hit payload or null if there is no such hit
+	 */
+	private byte[] seek(int skip, int type, boolean drop)
+			throws RecordStoreException {
+		for (int i = 0; i < segmentIds.size(); i++) {
+			int id = segmentIds.get(i);
+			byte[] data;
+			int pos = SEGMENT_HEADER;
+			int index = 0;
+			int count;
+			if (id == tailId) {
+				data = tailData;
+				count = tailCount;
+			} else if (id == headId) {
+				data = headData;
+				count = headCount;
+			} else {
+				data = store.getRecord(id);
+				count = readInt(data, 1);
+			}
+			if (id == headId) {
+				pos = headPos;
+				index = headIndex;
+			}
+			for (; index < count; index++) {
+				int length = entryLength(data, pos);
+				if (data[pos + 2] != TOMBSTONE) {
+					if (skip > 0) {
+						skip--;
+					} else if (type == ANY || data[pos + 2] == type) {
+						byte[] hit = new byte[length];
+						System.arraycopy(data, pos + 2, hit, 0, length);
+						if (drop) {
+							data[pos + 2] = TOMBSTONE;
+							writeSegment(id, data);
+							size--;
+							bytes -= length + 2;
+						}
+						return hit;
+					}
+				}
+				pos += length + 2;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Thins the oldest segment by dropping every second hit on it. If there
+	 * is only one hit left on the segment that hit is dropped.
+	 *
+	 * @return number of the hits dropped
+	 */
+	public int thin() {
+		if (size == 0) {
+			return 0;
+		}
+		skipTombstones();
+		byte[] data = headData();
+		int pos = headPos;
+		int live = 0;
+		int dropped = 0;
+		for (int index = headIndex; index < headCount; index++) {
+			int length = entryLength(data, pos);
+			// claimed hits are the first live ones, they are never dropped
+			if (data[pos + 2] != TOMBSTONE && live++ >= claimed
+					&& live % 2 == 0) {
+				data[pos + 2] = TOMBSTONE;
+				bytes -= length + 2;
+				dropped++;
+			}
+			pos += length + 2;
+		}
+		if (dropped > 0) {
+			try {
+				writeSegment(headId, data);
+			} catch (RecordStoreException e) {
+				e.printStackTrace();
+			}
+			size -= dropped;
+			return dropped;
+		}
+		return remove() ? 1 : 0;
+	}
+
+	/**
+	 * Writes the appended hits, persists the head pointer and deletes the
+	 * segments that were fully consumed since the last sync.
+	 */
+	public void sync() {
+		if (store == null || (!headDirty && !tailDirty)) {
+			return;
+		}
+		try {
+			if (tailDirty) {
+				try {
+					writeSegment(tailId, tailData);
+				} catch (RecordStoreFullException e) {
+					// the consumed segments give back their space first
+					syncHead();
+					writeSegment(tailId, tailData);
+				}
+			}
+			syncHead();
+		} catch (RecordStoreException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Persists the head pointer and deletes the segments before it.
+	 */
+	private void syncHead() throws RecordStoreException {
+		if (!headDirty) {
+			return;
+		}
+		byte[] head = new byte[9];
+		head[0] = HEAD;
+		writeInt(head, 1, headId);
+		writeInt(head, 5, headIndex);
+		if (headRecordId == 0) {
+			headRecordId = store.addRecord(head, 0, head.length);
+		} else {
+			store.setRecord(headRecordId, head, 0, head.length);
+		}
+		while (!reclaimedIds.isEmpty()) {
+			store.deleteRecord(reclaimedIds.poll());
+		}
+		headDirty = false;
+	}
+
+	/**
+	 * @return number of hits waiting on the journal
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @return bytes used by the hits waiting on the journal, including
+	 *         their length prefix
+	 */
+	public int bytes() {
+		return bytes;
+	}
+
+	public void close() {
+		if (store == null) {
+			return;
+		}
+		sync();
+		try {
+			store.closeRecordStore();
+		} catch (RecordStoreException e) {
+			// ignored
+		}
+		store = null;
+	}
+
+	private void removeHead() {
+		skipTombstones();
+		size--;
+		bytes -= entryLength(headData(), headPos) + 2;
+		advanceHead();
+	}
+
+	private byte[] headData() {
+		return headId == tailId ? tailData : headData;
+	}
+
+	private void skipTombstones() {
+		while (headIndex < headCount
+				&& headData()[headPos + 2] == TOMBSTONE) {
+			advanceHead();
+		}
+	}
+
+	private void advanceHead() {
+		skipHead();
+		headDirty = true;
+		if (headIndex < headCount) {
+			return;
+		}
+		try {
+			if (headId == tailId) {
+				// everything is consumed, reuse the tail segment
+				tailLength = SEGMENT_HEADER;
+				tailCount = 0;
+				writeInt(tailData, 1, 0);
+				headPos = SEGMENT_HEADER;
+				headIndex = 0;
+				headCount = 0;
+				tailDirty = true;
+				// persist right away so that a stale head index never
+				// points into the hits appended to the reused segment
+				sync();
+			} else {
+				reclaimedIds.add(segmentIds.poll());
+				loadHead(segmentIds.peek());
+			}
+		} catch (RecordStoreException e) {
+			e.printStackTrace();
+		}
+	}
+
+	private void newTailSegment() throws RecordStoreException {
+		if (tailDirty) {
+			// seal the tail with the hits appended since the last sync
+			writeSegment(tailId, tailData);
+		}
+		// the record comes first, if the store is full the tail is kept
+		// as it is
+		byte[] header = new byte[SEGMENT_HEADER];
+		header[0] = SEGMENT;
+		int id = store.addRecord(header, 0, SEGMENT_HEADER);
+		if (tailData != null && headId == tailId) {
+			// head still reads from the sealed tail
+			headData = tailData;
+			tailData = null;
+		}
+		if (tailData == null || tailData.length < SEGMENT_SIZE) {
+			tailData = new byte[SEGMENT_SIZE];
+		}
+		System.arraycopy(header, 0, tailData, 0, SEGMENT_HEADER);
+		tailLength = SEGMENT_HEADER;
+		tailCount = 0;
+		tailId = id;
+		segmentIds.add(tailId);
+	}
+
+	private void writeSegment(int id, byte[] data) throws RecordStoreException {
+		if (id == tailId) {
+			store.setRecord(id, data, 0, tailLength);
+			tailDirty = false;
+		} else {
+			store.setRecord(id, data, 0, data.length);
+		}
+	}
+
+	private void loadHead(int id) throws RecordStoreException {
+		headId = id;
+		headData = id == tailId ? null : store.getRecord(id);
+		headCount = id == tailId ? tailCount : readInt(headData, 1);
+		headPos = SEGMENT_HEADER;
+		headIndex = 0;
+	}
+
+	private void skipHead() {
+		headPos += entryLength(headData(), headPos) + 2;
+		headIndex++;
+	}
+
+	private void countLive(byte[] data, int pos, int index, int count) {
+		for (; index < count; index++) {
+			int length = entryLength(data, pos);
+			if (data[pos + 2] != TOMBSTONE) {
+				size++;
+				bytes += length + 2;
+			}
+			pos += length + 2;
+		}
+	}
+
+	private int[] sortedRecordIds() throws RecordStoreException {
+		RecordEnumeration e = store.enumerateRecords(null, null, false);
+		int[] ids = new int[e.numRecords()];
+		int count = 0;
+		while (e.hasNextElement()) {
+			int id = e.nextRecordId();
+			int i = count++;
+			while (i > 0 && ids[i - 1] > id) {
+				ids[i] = ids[i - 1];
+				i--;
+			}
+			ids[i] = id;
+		}
+		e.destroy();
+		return ids;
+	}
+
+	private static int entryLength(byte[] data, int pos) {
+		return ((data[pos] & 0xff) << 8) | (data[pos + 1] & 0xff);
+	}
+
+	private static int readInt(byte[] b, int off) {
+		return ((b[off] & 0xff) << 24) | ((b[off + 1] & 0xff) << 16)
+				| ((b[off + 2] & 0xff) << 8) | (b[off + 3] & 0xff);
+	}
+
+	private static void writeInt(byte[] b, int off, int v) {
+		b[off] = (byte) (v >>> 24);
+		b[off + 1] = (byte) (v >>> 16);
+		b[off + 2] = (byte) (v >>> 8);
+		b[off + 3] = (byte) v;
+	}
+}
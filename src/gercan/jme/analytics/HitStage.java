@@ -0,0 +1,136 @@
+/*************************************************************************
+* Copyright 2010 Gorkem Ercan
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*
+**************************************************************************/
+package gercan.jme.analytics;
+
+import java.util.Timer;
+import java.util.TimerTask;
+
+/**
+ * Keeps the hits of the deferred mode in memory and stores them as a group
+ * with a single sync of the store. A group is stored when the buffer is
+ * full, when the oldest hit in the buffer reaches the maximum delay or when
+ * the buffer is flushed. Full buffers and delays are stored on a timer
+ * thread so that the tracking calls do no I/O, unless the timer thread
+ * falls behind a full buffer.
+ *
+ * @author Gorkem Ercan
+ *
+ */
+final /*package*/ class HitStage {
+
+	private final GoogleAnalytics tracker;
+	private Hit[] hits;
+	private int count;
+	private int groupSize;
+	private long maxDelay;
+	private final Timer timer;
+	private TimerTask flushTask;
+	/*
+	 * keeps the groups in order when two threads flush
+	 */
+	private final Object flushLock = new Object();
+
+	HitStage(GoogleAnalytics tracker, Timer timer) {
+		this.tracker = tracker;
+		this.timer = timer;
+	}
+
+	/**
+	 * @param size hits in a group, 0 to store each hit alone
+	 * @param maxDelay longest time a hit waits in the buffer, 0 for no limit
+	 */
+	synchronized void configure(int size, long maxDelay) {
+		this.groupSize = size;
+		this.maxDelay = maxDelay;
+	}
+
+	/**
+	 * Adds the hit to the buffer.
+	 *
+	 * @return false if staging is disabled, the hit should be stored as is
+	 */
+	boolean add(Hit hit) {
+		synchronized (this) {
+			if (groupSize == 0 && count == 0) {
+				return false;
+			}
+			if (count < groupSize) {
+				if (hits == null || hits.length < groupSize) {
+					Hit[] grown = new Hit[groupSize];
+					if (hits != null) {
+						System.arraycopy(hits, 0, grown, 0, count);
+					}
+					hits = grown;
+				}
+				hits[count++] = hit;
+				if (count == groupSize) {
+					schedule(0);
+				} else if (count == 1 && maxDelay > 0) {
+					schedule(maxDelay);
+				}
+				return true;
+			}
+		}
+		// the timer thread did not catch up or staging was disabled, store
+		// the buffered hits on this thread
+		flush();
+		return add(hit);
+	}
+
+	/**
+	 * Stores the buffered hits.
+	 */
+	void flush() {
+		synchronized (flushLock) {
+			Hit[] group;
+			int size;
+			synchronized (this) {
+				if (flushTask != null) {
+					flushTask.cancel();
+					flushTask = null;
+				}
+				if (count == 0) {
+					return;
+				}
+				group = hits;
+				size = count;
+				hits = null;
+				count = 0;
+			}
+			tracker.storeHits(group, size);
+		}
+	}
+
+	/**
+	 * @return number of the buffered hits
+	 */
+	synchronized int size() {
+		return count;
+	}
+
+	private void schedule(long delay) {
+		if (flushTask != null) {
+			flushTask.cancel();
+		}
+		flushTask = new GuardedTask() {
+			void runTask() {
+				flush();
+			}
+		};
+		timer.schedule(flushTask, delay);
+	}
+}
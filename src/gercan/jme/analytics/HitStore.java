@@ -0,0 +1,131 @@
+/*************************************************************************
+* Copyright 2010 Gorkem Ercan
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*
+**************************************************************************/
+package gercan.jme.analytics;
+
+/**
+ * <p>
+ * FIFO store of the serialized hits waiting to be dispatched, see
+ * {@link GoogleAnalytics#setHitStores(HitStore, HitStore)}. The default
+ * store is a journal on the MIDP record store.
+ * </p>
+ * <p>
+ * The hits at the head can be claimed for sending, one or more at a time.
+ * Claimed hits stay on the store until they are committed or released and
+ * they are never dropped by
+ * {@link #remove()}, {@link #dropFirst(byte)} or {@link #thin()}. Changes
+ * may be buffered until {@link #sync()}. Hit payloads never start with a 0
+ * byte.
+ * </p>
+ * Implementations need not be thread safe, the tracker synchronizes the
+ * calls.
+ *
+ * @author Gorkem Ercan
+ *
+ */
+public interface HitStore {
+
+	/**
+	 * Opens the store and recovers the hits stored earlier.
+	 *
+	 * @return false if the store can not be opened
+	 */
+	boolean open();
+
+	boolean isOpen();
+
+	/**
+	 * Appends a hit to the tail.
+	 *
+	 * @param hit payload, at most 65535 bytes
+	 * @return false if the hit could not be written
+	 */
+	boolean append(byte[] hit);
+
+	/**
+	 * Returns the hit at the head without consuming it.
+	 *
+	 * @return hit payload or null if the store is empty
+	 */
+	byte[] peek();
+
+	/**
+	 * Claims the oldest hit that is not claimed yet for sending.
+	 *
+	 * @return hit payload or null if all hits are claimed
+	 */
+	byte[] claim();
+
+	/**
+	 * Consumes the claimed hits.
+	 */
+	void commit();
+
+	/**
+	 * Gives up the claims, the hits stay at the head.
+	 */
+	void release();
+
+	/**
+	 * Drops the oldest hit that is not claimed.
+	 *
+	 * @return false if there is no hit to drop
+	 */
+	boolean remove();
+
+	/**
+	 * Overwrites a byte of the hit at the head.
+	 *
+	 * @param offset offset in the hit payload
+	 * @param value new value
+	 */
+	void updateHead(int offset, byte value);
+
+	/**
+	 * Drops the oldest hit, that is not claimed, whose payload starts with
+	 * the given byte.
+	 *
+	 * @param type first byte of the payload
+	 * @return false if there is no such hit
+	 */
+	boolean dropFirst(byte type);
+
+	/**
+	 * Drops every second hit among the oldest hits, or the oldest hit that
+	 * is not claimed if there is only one.
+	 *
+	 * @return number of the hits dropped
+	 */
+	int thin();
+
+	/**
+	 * Makes the changes durable.
+	 */
+	void sync();
+
+	/**
+	 * @return number of hits waiting on the store
+	 */
+	int size();
+
+	/**
+	 * @return bytes used by the hits waiting on the store, including a two
+	 *         byte length prefix for each
+	 */
+	int bytes();
+
+	void close();
+}
@@ -0,0 +1,66 @@
+/*************************************************************************
+* Copyright 2010 Gorkem Ercan
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*
+**************************************************************************/
+package gercan.jme.analytics;
+
+import java.io.IOException;
+
+/**
+ * Sends the tracking requests of the hits, see
+ * {@link GoogleAnalytics#setTransport(HitTransport)}. The default transport
+ * uses the MIDP {@link javax.microedition.io.HttpConnection}.
+ * Implementations must be thread safe, the dispatching and the immediate
+ * mode threads may send at the same time.
+ *
+ * @author Gorkem Ercan
+ *
+ */
+public interface HitTransport {
+
+	/**
+	 * Makes the GET request of a hit and waits for the response.
+	 *
+	 * @param url complete tracking url
+	 * @param userAgent user agent of the device
+	 * @throws HttpStatusException if the server responds with a code other
+	 *             than 200
+	 * @throws IOException if the request fails or times out, the hit is
+	 *             retried later
+	 */
+	void send(String url, String userAgent) throws IOException;
+
+	/**
+	 * Makes a POST request with a batch of hits and waits for the response.
+	 *
+	 * @param url url of the collector
+	 * @param body request body, one hit per line
+	 * @param userAgent user agent of the device
+	 * @return the response body, an empty array if there is none
+	 * @throws HttpStatusException if the server responds with a code other
+	 *             than 200
+	 * @throws IOException if the request fails or times out
+	 */
+	byte[] post(String url, byte[] body, String userAgent) throws IOException;
+
+	/**
+	 * Sets the connect and read timeouts in milliseconds, 0 waits as long
+	 * as the platform does.
+	 *
+	 * @param connectTimeout connect timeout
+	 * @param readTimeout read timeout
+	 */
+	void setTimeouts(int connectTimeout, int readTimeout);
+}
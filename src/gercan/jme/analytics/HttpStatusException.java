@@ -0,0 +1,54 @@
+/*************************************************************************
+* Copyright 2010 Gorkem Ercan
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*
+**************************************************************************/
+package gercan.jme.analytics;
+
+import java.io.IOException;
+
+/**
+ * Thrown when the server is reached but does not accept the hit. Custom
+ * {@link HitTransport}s throw it so that the hits rejected for good are
+ * moved to the dead letters instead of being retried.
+ *
+ * @author Gorkem Ercan
+ *
+ */
+public final class HttpStatusException extends IOException {
+	private final int status;
+
+	public HttpStatusException(int status) {
+		super("Connection failed with response code " + status);
+		this.status = status;
+	}
+
+	/**
+	 * @return HTTP response code
+	 */
+	public int getStatus() {
+		return status;
+	}
+
+	/**
+	 * @return true if sending the same hit again will not help
+	 */
+	public boolean isPermanent() {
+		return isPermanent(status);
+	}
+
+	static boolean isPermanent(int status) {
+		return status >= 400 && status < 500 && status != 408;
+	}
+}
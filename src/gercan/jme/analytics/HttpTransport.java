@@ -0,0 +1,207 @@
+/*************************************************************************
+* Copyright 2010 Gorkem Ercan
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*
+**************************************************************************/
+package gercan.jme.analytics;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Timer;
+
+import javax.microedition.io.Connector;
+import javax.microedition.io.HttpConnection;
+
+/**
+ * Sends the tracking requests over {@link HttpConnection}. Connections and
+ * their streams are always closed. MIDP has no timeout setting for
+ * connections, a watchdog closes the connection of a request that takes too
+ * long which makes the blocked call fail with an {@link IOException}.
+ * Response bodies are read fully and keep-alive is requested so that the
+ * platform can reuse the socket for the next request.
+ *
+ * @author Gorkem Ercan
+ *
+ */
+final /*package*/ class HttpTransport implements HitTransport {
+
+	private static final class Watchdog extends GuardedTask {
+		private final HttpConnection connection;
+		private boolean fired;
+
+		Watchdog(HttpConnection connection) {
+			this.connection = connection;
+		}
+
+		void runTask() {
+			synchronized (this) {
+				fired = true;
+			}
+			try {
+				connection.close();
+			} catch (IOException e) {
+				// ignored
+			}
+		}
+
+		synchronized boolean hasFired() {
+			return fired;
+		}
+	}
+
+	/*
+	 * longest response body kept for the caller, the rest is discarded
+	 */
+	private static final int MAX_RESPONSE = 4096;
+
+	private int connectTimeout;
+	private int readTimeout;
+	private final Timer timer;
+	private byte[] drainBuffer = new byte[256];
+
+	HttpTransport(Timer timer, int connectTimeout, int readTimeout) {
+		this.timer = timer;
+		this.connectTimeout = connectTimeout;
+		this.readTimeout = readTimeout;
+	}
+
+	public synchronized void setTimeouts(int connectTimeout, int readTimeout) {
+		this.connectTimeout = connectTimeout;
+		this.readTimeout = readTimeout;
+	}
+
+	/**
+	 * Makes a GET request to the url.
+	 *
+	 * @throws IOException if the request fails or times out
+	 * @throws HttpStatusException if the response code is not 200
+	 */
+	public void send(String url, String userAgent) throws IOException {
+		request(url, null, userAgent);
+	}
+
+	/**
+	 * Makes a POST request to the url.
+	 *
+	 * @return the response body, at most {@link #MAX_RESPONSE} bytes
+	 * @throws IOException if the request fails or times out
+	 * @throws HttpStatusException if the response code is not 200
+	 */
+	public byte[] post(String url, byte[] body, String userAgent)
+			throws IOException {
+		return request(url, body, userAgent);
+	}
+
+	/**
+	 * @param body POST body or null for a GET request
+	 * @return the response body of a POST request, null for a GET request
+	 */
+	private byte[] request(String url, byte[] body, String userAgent)
+			throws IOException {
+		int connectMillis;
+		int readMillis;
+		synchronized (this) {
+			connectMillis = connectTimeout;
+			readMillis = readTimeout;
+		}
+		HttpConnection c = (HttpConnection) Connector.open(url,
+				body == null ? Connector.READ : Connector.READ_WRITE, true);
+		Watchdog watchdog = null;
+		InputStream in = null;
+		OutputStream out = null;
+		ByteArrayOutputStream response = null;
+		try {
+			watchdog = watch(c, connectMillis);
+			c.setRequestProperty("Host", hostOf(url));
+			c.setRequestProperty("User-Agent", userAgent);
+			c.setRequestProperty("Connection", "keep-alive");
+			if (body != null) {
+				c.setRequestMethod(HttpConnection.POST);
+				c.setRequestProperty("Content-Type", "text/plain");
+				c.setRequestProperty("Content-Length",
+						String.valueOf(body.length));
+				out = c.openOutputStream();
+				out.write(body);
+				out.close();
+				out = null;
+				response = new ByteArrayOutputStream(64);
+			}
+			int rc = c.getResponseCode();
+			if (rc != HttpConnection.HTTP_OK) {
+				throw new HttpStatusException(rc);
+			}
+			if (watchdog != null) {
+				watchdog.cancel();
+			}
+			watchdog = watch(c, readMillis);
+			// read the body so that the connection can be reused
+			in = c.openInputStream();
+			synchronized (drainBuffer) {
+				int n;
+				while ((n = in.read(drainBuffer)) > 0) {
+					if (response != null && response.size() < MAX_RESPONSE) {
+						response.write(drainBuffer, 0, Math.min(n,
+								MAX_RESPONSE - response.size()));
+					}
+				}
+			}
+			return response == null ? null : response.toByteArray();
+		} catch (IOException e) {
+			if (watchdog != null && watchdog.hasFired()) {
+				throw new IOException("Request timed out");
+			}
+			throw e;
+		} finally {
+			if (watchdog != null) {
+				watchdog.cancel();
+			}
+			if (in != null) {
+				try {
+					in.close();
+				} catch (IOException e) {
+					// ignored
+				}
+			}
+			if (out != null) {
+				try {
+					out.close();
+				} catch (IOException e) {
+					// ignored
+				}
+			}
+			try {
+				c.close();
+			} catch (IOException e) {
+				// ignored
+			}
+		}
+	}
+
+	private static String hostOf(String url) {
+		int start = url.indexOf("//") + 2;
+		int end = url.indexOf('/', start);
+		return end < 0 ? url.substring(start) : url.substring(start, end);
+	}
+
+	private Watchdog watch(HttpConnection c, int millis) {
+		if (millis <= 0) {
+			return null;
+		}
+		Watchdog watchdog = new Watchdog(c);
+		timer.schedule(watchdog, millis);
+		return watchdog;
+	}
+}
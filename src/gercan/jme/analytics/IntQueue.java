@@ -0,0 +1,94 @@
+/*************************************************************************
+* Copyright 2010 Gorkem Ercan
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*
+**************************************************************************/
+package gercan.jme.analytics;
+
+/**
+ * Growable FIFO of primitive ints backed by a ring buffer. Used for keeping
+ * record ids without boxing them into {@link Integer}s. Not thread safe.
+ *
+ * @author Gorkem Ercan
+ *
+ */
+final /*package*/ class IntQueue {
+	private int[] elements;
+	private int head;
+	private int count;
+
+	IntQueue(int initialCapacity) {
+		elements = new int[initialCapacity < 1 ? 1 : initialCapacity];
+	}
+
+	void add(int value) {
+		if (count == elements.length) {
+			int[] grown = new int[elements.length * 2];
+			for (int i = 0; i < count; i++) {
+				grown[i] = elements[(head + i) % elements.length];
+			}
+			elements = grown;
+			head = 0;
+		}
+		elements[(head + count) % elements.length] = value;
+		count++;
+	}
+
+	/**
+	 * Returns the first element without removing it.
+	 *
+	 * @throws IllegalStateException if the queue is empty
+	 */
+	int peek() {
+		if (count == 0) {
+			throw new IllegalStateException("Queue is empty");
+		}
+		return elements[head];
+	}
+
+	/**
+	 * Removes and returns the first element.
+	 *
+	 * @throws IllegalStateException if the queue is empty
+	 */
+	int poll() {
+		int value = peek();
+		head = (head + 1) % elements.length;
+		count--;
+		return value;
+	}
+
+	/**
+	 * Returns the element at the given position, 0 being the first.
+	 */
+	int get(int index) {
+		if (index < 0 || index >= count) {
+			throw new IndexOutOfBoundsException("Index " + index);
+		}
+		return elements[(head + index) % elements.length];
+	}
+
+	int size() {
+		return count;
+	}
+
+	boolean isEmpty() {
+		return count == 0;
+	}
+
+	void clear() {
+		head = 0;
+		count = 0;
+	}
+}
@@ -0,0 +1,147 @@
+/*************************************************************************
+* Copyright 2010 Gorkem Ercan
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*
+**************************************************************************/
+package gercan.jme.analytics;
+
+import java.util.Vector;
+
+/**
+ * Keeps the hits in memory, they are lost when the application exits. The
+ * tracker falls back to it when the record stores can not be opened, so
+ * that the hits of this run can still be dispatched.
+ *
+ * @author Gorkem Ercan
+ *
+ */
+final /*package*/ class MemoryHitStore implements HitStore {
+	private final Vector hits = new Vector();
+	/*
+	 * number of the hits at the head that are claimed
+	 */
+	private int claimed;
+	private int bytes;
+	private boolean open;
+
+	public boolean open() {
+		open = true;
+		return true;
+	}
+
+	public boolean isOpen() {
+		return open;
+	}
+
+	public boolean append(byte[] hit) {
+		if (!open) {
+			return false;
+		}
+		hits.addElement(copy(hit));
+		bytes += hit.length + 2;
+		return true;
+	}
+
+	public byte[] peek() {
+		if (hits.isEmpty()) {
+			return null;
+		}
+		return copy((byte[]) hits.elementAt(0));
+	}
+
+	public byte[] claim() {
+		if (claimed >= hits.size()) {
+			return null;
+		}
+		return copy((byte[]) hits.elementAt(claimed++));
+	}
+
+	public void commit() {
+		while (claimed > 0) {
+			claimed--;
+			drop(0);
+		}
+	}
+
+	public void release() {
+		claimed = 0;
+	}
+
+	public boolean remove() {
+		if (hits.size() <= claimed) {
+			return false;
+		}
+		drop(claimed);
+		return true;
+	}
+
+	public void updateHead(int offset, byte value) {
+		if (!hits.isEmpty()) {
+			((byte[]) hits.elementAt(0))[offset] = value;
+		}
+	}
+
+	public boolean dropFirst(byte type) {
+		for (int i = claimed; i < hits.size(); i++) {
+			if (((byte[]) hits.elementAt(i))[0] == type) {
+				drop(i);
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Drops every second hit that is not claimed, or the oldest one if
+	 * there is only one.
+	 */
+	public int thin() {
+		int dropped = 0;
+		// the next hit moves into the place of a dropped one and is kept
+		for (int i = claimed + 1; i < hits.size(); i++) {
+			drop(i);
+			dropped++;
+		}
+		if (dropped > 0) {
+			return dropped;
+		}
+		return remove() ? 1 : 0;
+	}
+
+	public void sync() {
+	}
+
+	public int size() {
+		return hits.size();
+	}
+
+	public int bytes() {
+		return bytes;
+	}
+
+	public void close() {
+		open = false;
+	}
+
+	private void drop(int index) {
+		bytes -= ((byte[]) hits.elementAt(index)).length + 2;
+		hits.removeElementAt(index);
+	}
+
+	private static byte[] copy(byte[] hit) {
+		byte[] copy = new byte[hit.length];
+		System.arraycopy(hit, 0, copy, 0, hit.length);
+		return copy;
+	}
+}
@@ -0,0 +1,126 @@
+/*************************************************************************
+* Copyright 2010 Gorkem Ercan
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*
+**************************************************************************/
+package gercan.jme.analytics;
+
+/**
+ * Tracks pageviews and events for one web property ID, see
+ * {@link GoogleAnalytics#getTracker(String)}. The hits are stored and
+ * dispatched together with the hits of the {@link GoogleAnalytics}
+ * instance, which also holds the configuration, so reporting to several
+ * properties does not need another record store or another dispatch.
+ *
+ * @author Gorkem Ercan
+ *
+ */
+public final class PropertyTracker {
+	private final GoogleAnalytics tracker;
+	private final String webPropertyID;
+
+	PropertyTracker(GoogleAnalytics tracker, String webPropertyID) {
+		this.tracker = tracker;
+		this.webPropertyID = webPropertyID;
+	}
+
+	/**
+	 * Returns the web property ID the hits are reported to
+	 * @return web property ID
+	 */
+	public String getWebPropertyID() {
+		return webPropertyID;
+	}
+
+	/**
+	 * Tracks a pageview, see {@link GoogleAnalytics#trackPageView(String)}.
+	 *
+	 * @param url descriptive name for the current view
+	 */
+	public void trackPageView(String url) {
+		tracker.trackPageView(webPropertyID, url,
+				GoogleAnalytics.PRIORITY_NORMAL);
+	}
+
+	/**
+	 * Tracks a pageview with the given priority, see
+	 * {@link GoogleAnalytics#trackPageView(String, int)}.
+	 *
+	 * @param url descriptive name for the current view
+	 * @param priority hit priority
+	 * @throws IllegalArgumentException if the priority is unknown
+	 */
+	public void trackPageView(String url, int priority) {
+		tracker.trackPageView(webPropertyID, url, priority);
+	}
+
+	/**
+	 * Tracks an event, see
+	 * {@link GoogleAnalytics#trackEvent(String, String, String, int)}.
+	 *
+	 * @param category name of the group of objects tracked
+	 * @param action user interaction
+	 * @param opt_label optional label, can be null
+	 * @param opt_value optional value, -1 for none
+	 * @throws IllegalArgumentException if the category or action is null
+	 */
+	public void trackEvent(String category, String action, String opt_label,
+			int opt_value) {
+		tracker.trackEvent(webPropertyID, category, action, opt_label,
+				opt_value, GoogleAnalytics.PRIORITY_NORMAL);
+	}
+
+	/**
+	 * Tracks an event with the given priority, see
+	 * {@link GoogleAnalytics#trackEvent(String, String, String, int, int)}.
+	 *
+	 * @param category name of the group of objects tracked
+	 * @param action user interaction
+	 * @param opt_label optional label, can be null
+	 * @param opt_value optional value, -1 for none
+	 * @param priority hit priority
+	 * @throws IllegalArgumentException if the priority is unknown or the
+	 *             category or action is null
+	 */
+	public void trackEvent(String category, String action, String opt_label,
+			int opt_value, int priority) {
+		tracker.trackEvent(webPropertyID, category, action, opt_label,
+				opt_value, priority);
+	}
+
+	/**
+	 * Starts measuring a user timing, see
+	 * {@link GoogleAnalytics#startTiming(String, String)}.
+	 *
+	 * @param category name of the group of timings
+	 * @param variable name of the timed operation
+	 * @return running span
+	 * @throws IllegalArgumentException if category or variable is null
+	 */
+	public TimingSpan startTiming(String category, String variable) {
+		return tracker.startTiming(webPropertyID, category, variable);
+	}
+
+	/**
+	 * Ends the span and reports the elapsed time, see
+	 * {@link GoogleAnalytics#endTiming(TimingSpan)}.
+	 *
+	 * @param span span returned by {@link #startTiming(String, String)}
+	 * @return elapsed time in milliseconds
+	 * @throws IllegalArgumentException if span is null or already ended
+	 */
+	public long endTiming(TimingSpan span) {
+		return tracker.endTiming(span);
+	}
+}
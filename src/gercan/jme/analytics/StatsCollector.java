@@ -0,0 +1,98 @@
+/*************************************************************************
+* Copyright 2010 Gorkem Ercan
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*
+**************************************************************************/
+package gercan.jme.analytics;
+
+/**
+ * Collects the counters and latency histograms of the tracker. Recording
+ * does not allocate so it can stay enabled on the tracking path.
+ *
+ * @author Gorkem Ercan
+ *
+ */
+final /*package*/ class StatsCollector {
+	/*
+	 * upper bounds of the histogram buckets in milliseconds, the last bucket
+	 * has no upper bound
+	 */
+	static final int[] BUCKET_BOUNDS = { 1, 2, 5, 10, 20, 50, 100, 200, 500,
+			1000, 2000, 5000, 10000 };
+	static final int BUCKETS = BUCKET_BOUNDS.length + 1;
+
+	private int enqueued;
+	private int sent;
+	private int failed;
+	private int evicted;
+	private int dropped;
+	private final int[] storeLatency = new int[BUCKETS];
+	private final int[] dispatchLatency = new int[BUCKETS];
+	private final int[] encodeLatency = new int[BUCKETS];
+
+	synchronized void hitEnqueued() {
+		enqueued++;
+	}
+
+	synchronized void hitSent(long millis) {
+		sent++;
+		record(dispatchLatency, millis);
+	}
+
+	synchronized void hitFailed(long millis) {
+		failed++;
+		record(dispatchLatency, millis);
+	}
+
+	synchronized void hitsEvicted(int count) {
+		evicted += count;
+	}
+
+	synchronized void hitDropped() {
+		dropped++;
+	}
+
+	synchronized void stored(long millis) {
+		record(storeLatency, millis);
+	}
+
+	synchronized void encoded(long millis) {
+		record(encodeLatency, millis);
+	}
+
+	synchronized int getEvicted() {
+		return evicted;
+	}
+
+	synchronized TrackerStats snapshot(int storedHits, int queuedHits,
+			int deadLetters) {
+		return new TrackerStats(enqueued, sent, failed, evicted, dropped,
+				storedHits, queuedHits, deadLetters, copy(storeLatency),
+				copy(dispatchLatency), copy(encodeLatency));
+	}
+
+	private static void record(int[] histogram, long millis) {
+		int i = 0;
+		while (i < BUCKET_BOUNDS.length && millis >= BUCKET_BOUNDS[i]) {
+			i++;
+		}
+		histogram[i]++;
+	}
+
+	private static int[] copy(int[] histogram) {
+		int[] copy = new int[histogram.length];
+		System.arraycopy(histogram, 0, copy, 0, histogram.length);
+		return copy;
+	}
+}
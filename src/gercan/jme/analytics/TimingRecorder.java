@@ -0,0 +1,347 @@
+/*************************************************************************
+* Copyright 2010 Gorkem Ercan
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*
+**************************************************************************/
+package gercan.jme.analytics;
+
+import java.util.Enumeration;
+import java.util.Hashtable;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.Vector;
+
+/**
+ * <p>
+ * Keeps the pool of the {@link TimingSpan} handles and turns the ended
+ * spans into timing hits. Starting and ending a span only moves the handle
+ * between two linked lists, the hits are built and submitted by a task on
+ * the timer of the tracker so the measured code does not wait for the
+ * store. The task repeats while there are spans or times to report, the
+ * measured code allocates only when it ends the first span after a quiet
+ * period or when more spans run at a time than ever before.
+ * </p>
+ * <p>
+ * With {@link GoogleAnalytics#TIMING_BUCKETS} and
+ * {@link GoogleAnalytics#TIMING_PERCENTILES} the times of the same
+ * category and variable are collected for a window and reported as one hit
+ * per bucket or per percentile. The window starts with the first span that
+ * ends after a flush, it is reported by the first run of the task after
+ * the window is over.
+ * </p>
+ *
+ * @author Gorkem Ercan
+ *
+ */
+final /*package*/ class TimingRecorder {
+	/*
+	 * period of the task that reports the ended spans
+	 */
+	private static final long COLLECT_PERIOD = 1000L;
+
+	private final GoogleAnalytics tracker;
+	private TimingSpan free;
+	private TimingSpan ended;
+	private TimingSpan endedTail;
+	private int mode = GoogleAnalytics.TIMING_EACH;
+	private long window;
+	private int[] values;
+	/*
+	 * end of the current aggregation window, 0 if no times are collected
+	 */
+	private long windowEnd;
+	private final Timer timer;
+	/*
+	 * repeating task, null while there is nothing to report
+	 */
+	private TimerTask collectTask;
+	/*
+	 * collected times by category, variable and account, used only by the
+	 * thread holding the flushLock
+	 */
+	private final Hashtable series = new Hashtable();
+	/*
+	 * keeps the hits in order when two threads flush
+	 */
+	private final Object flushLock = new Object();
+
+	TimingRecorder(GoogleAnalytics tracker, Timer timer, int poolSize) {
+		this.tracker = tracker;
+		this.timer = timer;
+		for (int i = 0; i < poolSize; i++) {
+			TimingSpan span = new TimingSpan();
+			span.next = free;
+			free = span;
+		}
+	}
+
+	/**
+	 * @param mode {@link GoogleAnalytics#TIMING_EACH},
+	 *            {@link GoogleAnalytics#TIMING_BUCKETS} or
+	 *            {@link GoogleAnalytics#TIMING_PERCENTILES}
+	 * @param window length of the aggregation window
+	 * @param values bucket bounds or percentiles
+	 */
+	synchronized void configure(int mode, long window, int[] values) {
+		this.mode = mode;
+		this.window = window;
+		this.values = values;
+	}
+
+	/**
+	 * Takes a span from the pool and starts it.
+	 */
+	synchronized TimingSpan start(String category, String variable,
+			String account) {
+		TimingSpan span = free;
+		if (span == null) {
+			// more spans are running than ever before, the pool grows
+			span = new TimingSpan();
+		} else {
+			free = span.next;
+			span.next = null;
+		}
+		span.category = category;
+		span.variable = variable;
+		span.account = account;
+		span.running = true;
+		span.start = System.currentTimeMillis();
+		return span;
+	}
+
+	/**
+	 * Stops the span and hands it to the task on the timer.
+	 *
+	 * @return elapsed time in milliseconds
+	 * @throws IllegalArgumentException if the span is not running
+	 */
+	synchronized long end(TimingSpan span) {
+		long now = System.currentTimeMillis();
+		if (!span.running) {
+			throw new IllegalArgumentException("Timing span is not running");
+		}
+		span.running = false;
+		span.elapsed = now > span.start ? now - span.start : 0;
+		if (endedTail == null) {
+			ended = span;
+		} else {
+			endedTail.next = span;
+		}
+		endedTail = span;
+		if (collectTask == null) {
+			collectTask = new GuardedTask() {
+				void runTask() {
+					collect(false);
+				}
+			};
+			timer.schedule(collectTask, COLLECT_PERIOD, COLLECT_PERIOD);
+		}
+		return span.elapsed;
+	}
+
+	/**
+	 * Submits the ended spans and the collected times right away.
+	 */
+	void flush() {
+		collect(true);
+	}
+
+	/**
+	 * Submits the ended spans, or adds them to the collected times and
+	 * submits those if the window is over.
+	 *
+	 * @param all true to submit the collected times before the window ends
+	 */
+	private void collect(boolean all) {
+		synchronized (flushLock) {
+			TimingSpan first;
+			TimingSpan last;
+			int mode;
+			int[] values;
+			synchronized (this) {
+				first = ended;
+				last = endedTail;
+				ended = null;
+				endedTail = null;
+				mode = this.mode;
+				values = this.values;
+			}
+			Vector hits = new Vector();
+			for (TimingSpan span = first; span != null; span = span.next) {
+				if (mode == GoogleAnalytics.TIMING_EACH) {
+					Hit hit = Hit.timing(span.category, span.variable, null,
+							toInt(span.elapsed));
+					hit.account = span.account;
+					hit.time = span.start + span.elapsed;
+					hits.addElement(hit);
+				} else {
+					String key = span.category + '\n' + span.variable + '\n'
+							+ (span.account == null ? "" : span.account);
+					Series times = (Series) series.get(key);
+					if (times == null) {
+						times = new Series(span.category, span.variable,
+								span.account);
+						series.put(key, times);
+					}
+					times.add(toInt(span.elapsed));
+				}
+			}
+			boolean due;
+			synchronized (this) {
+				if (first != null) {
+					release(first, last);
+				}
+				long now = System.currentTimeMillis();
+				if (series.isEmpty()) {
+					windowEnd = 0;
+				} else if (windowEnd == 0) {
+					windowEnd = now + window;
+				}
+				due = windowEnd != 0 && (all || now >= windowEnd);
+				if (due) {
+					windowEnd = 0;
+				}
+				if (ended == null && windowEnd == 0 && collectTask != null) {
+					// nothing left to report, the timer stays idle
+					collectTask.cancel();
+					collectTask = null;
+				}
+			}
+			if (due) {
+				for (Enumeration e = series.elements(); e.hasMoreElements();) {
+					Series times = (Series) e.nextElement();
+					if (mode == GoogleAnalytics.TIMING_BUCKETS) {
+						times.buckets(values, hits);
+					} else {
+						times.percentiles(values, hits);
+					}
+				}
+				series.clear();
+			}
+			for (int i = 0; i < hits.size(); i++) {
+				tracker.submit((Hit) hits.elementAt(i));
+			}
+		}
+	}
+
+	/**
+	 * Puts a chain of spans back to the pool, called with the lock held.
+	 */
+	private void release(TimingSpan first, TimingSpan last) {
+		last.next = free;
+		free = first;
+	}
+
+	private static int toInt(long millis) {
+		return millis > Integer.MAX_VALUE ? Integer.MAX_VALUE : (int) millis;
+	}
+
+	/**
+	 * Times of a category and variable collected in a window.
+	 */
+	private static final class Series {
+		private final String category;
+		private final String variable;
+		private final String account;
+		private int[] times = new int[8];
+		private int count;
+
+		Series(String category, String variable, String account) {
+			this.category = category;
+			this.variable = variable;
+			this.account = account;
+		}
+
+		void add(int millis) {
+			if (count == times.length) {
+				int[] grown = new int[count * 2];
+				System.arraycopy(times, 0, grown, 0, count);
+				times = grown;
+			}
+			times[count++] = millis;
+		}
+
+		/**
+		 * Adds a hit for each bucket that has times. The hit carries the
+		 * average of the times in the bucket, the bucket as the label and
+		 * the number of times as the count. Bucket <code>i</code> holds the
+		 * times below <code>bounds[i]</code> and not below the previous
+		 * bound, the last bucket has no upper bound.
+		 */
+		void buckets(int[] bounds, Vector hits) {
+			int[] counts = new int[bounds.length + 1];
+			long[] sums = new long[bounds.length + 1];
+			for (int i = 0; i < count; i++) {
+				int b = 0;
+				while (b < bounds.length && times[i] >= bounds[b]) {
+					b++;
+				}
+				counts[b]++;
+				sums[b] += times[i];
+			}
+			for (int b = 0; b < counts.length; b++) {
+				if (counts[b] == 0) {
+					continue;
+				}
+				String label;
+				if (b == 0) {
+					label = "<" + bounds[0];
+				} else if (b == bounds.length) {
+					label = ">=" + bounds[b - 1];
+				} else {
+					label = bounds[b - 1] + "-" + bounds[b];
+				}
+				hits.addElement(hit(label, (int) (sums[b] / counts[b]),
+						counts[b]));
+			}
+		}
+
+		/**
+		 * Adds a hit for each percentile, by the nearest rank. The hit
+		 * carries the percentile as the label, "p90", and the number of
+		 * times as the count.
+		 */
+		void percentiles(int[] percentiles, Vector hits) {
+			sort(times, count);
+			for (int i = 0; i < percentiles.length; i++) {
+				int rank = (percentiles[i] * count + 99) / 100;
+				hits.addElement(hit("p" + percentiles[i],
+						times[Math.max(rank, 1) - 1], count));
+			}
+		}
+
+		private Hit hit(String label, int millis, int count) {
+			Hit hit = Hit.timing(category, variable, label, millis);
+			hit.account = account;
+			hit.count = count;
+			return hit;
+		}
+
+		/**
+		 * Insertion sort, a window holds few times and CLDC has no
+		 * Arrays.sort.
+		 */
+		private static void sort(int[] a, int length) {
+			for (int i = 1; i < length; i++) {
+				int v = a[i];
+				int j = i - 1;
+				while (j >= 0 && a[j] > v) {
+					a[j + 1] = a[j];
+					j--;
+				}
+				a[j + 1] = v;
+			}
+		}
+	}
+}
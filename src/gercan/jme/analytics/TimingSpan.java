@@ -0,0 +1,45 @@
+/*************************************************************************
+* Copyright 2010 Gorkem Ercan
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*
+**************************************************************************/
+package gercan.jme.analytics;
+
+/**
+ * Handle of a running timing, see
+ * {@link GoogleAnalytics#startTiming(String, String)}. Handles are pooled
+ * by the tracker and reused once they are reported, a handle must not be
+ * kept after it is passed to {@link GoogleAnalytics#endTiming(TimingSpan)}.
+ *
+ * @author Gorkem Ercan
+ *
+ */
+public final class TimingSpan {
+	String category;
+	String variable;
+	/*
+	 * web property ID, null for the ID of the GoogleAnalytics instance
+	 */
+	String account;
+	long start;
+	long elapsed;
+	boolean running;
+	/*
+	 * next span on the free list or on the list of the ended spans
+	 */
+	TimingSpan next;
+
+	TimingSpan() {
+	}
+}
@@ -0,0 +1,44 @@
+/*************************************************************************
+* Copyright 2010 Gorkem Ercan
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*
+**************************************************************************/
+package gercan.jme.analytics;
+
+/**
+ * Receives notifications about the work done by the tracker, see
+ * {@link GoogleAnalytics#setListener(TrackerListener)}. Methods are called
+ * on the thread that did the work, which may be a background thread of the
+ * tracker. Implementations should return quickly.
+ *
+ * @author Gorkem Ercan
+ *
+ */
+public interface TrackerListener {
+
+	/**
+	 * Called after the stored hits are dispatched.
+	 *
+	 * @param result outcome of the dispatch
+	 */
+	void dispatchFinished(DispatchResult result);
+
+	/**
+	 * Called when hits are dropped because of the storage quota, a full
+	 * record store or a full immediate mode queue.
+	 *
+	 * @param count number of the dropped hits
+	 */
+	void hitsDropped(int count);
+}
@@ -0,0 +1,163 @@
+/*************************************************************************
+* Copyright 2010 Gorkem Ercan
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*
+**************************************************************************/
+package gercan.jme.analytics;
+
+/**
+ * Snapshot of the tracker counters, see {@link GoogleAnalytics#getStats()}.
+ * Counters are totals since the tracker was created. The histograms count
+ * the operations by their duration in milliseconds, bucket <code>i</code>
+ * counts the durations below {@link #getBucketBound(int)} and not below the
+ * bound of the previous bucket. The last bucket has no upper bound.
+ *
+ * @author Gorkem Ercan
+ *
+ */
+public final class TrackerStats {
+	private final int enqueued;
+	private final int sent;
+	private final int failed;
+	private final int evicted;
+	private final int dropped;
+	private final int storedHits;
+	private final int queuedHits;
+	private final int deadLetters;
+	private final int[] storeLatency;
+	private final int[] dispatchLatency;
+	private final int[] encodeLatency;
+
+	TrackerStats(int enqueued, int sent, int failed, int evicted, int dropped,
+			int storedHits, int queuedHits, int deadLetters,
+			int[] storeLatency, int[] dispatchLatency, int[] encodeLatency) {
+		this.enqueued = enqueued;
+		this.sent = sent;
+		this.failed = failed;
+		this.evicted = evicted;
+		this.dropped = dropped;
+		this.storedHits = storedHits;
+		this.queuedHits = queuedHits;
+		this.deadLetters = deadLetters;
+		this.storeLatency = storeLatency;
+		this.dispatchLatency = dispatchLatency;
+		this.encodeLatency = encodeLatency;
+	}
+
+	/**
+	 * @return hits accepted by the tracking calls
+	 */
+	public int getEnqueued() {
+		return enqueued;
+	}
+
+	/**
+	 * @return hits sent successfully
+	 */
+	public int getSent() {
+		return sent;
+	}
+
+	/**
+	 * @return failed send attempts
+	 */
+	public int getFailed() {
+		return failed;
+	}
+
+	/**
+	 * @return stored hits dropped by the storage quota or a full record
+	 *         store
+	 */
+	public int getEvicted() {
+		return evicted;
+	}
+
+	/**
+	 * @return hits dropped because the immediate mode queue was full
+	 */
+	public int getDropped() {
+		return dropped;
+	}
+
+	/**
+	 * @return hits stored and waiting to be dispatched
+	 */
+	public int getStoredHits() {
+		return storedHits;
+	}
+
+	/**
+	 * @return hits waiting on the immediate mode queue
+	 */
+	public int getQueuedHits() {
+		return queuedHits;
+	}
+
+	/**
+	 * @return hits that failed permanently
+	 */
+	public int getDeadLetters() {
+		return deadLetters;
+	}
+
+	/**
+	 * @return histogram of the time it takes to store a hit
+	 */
+	public int[] getStoreLatency() {
+		return storeLatency;
+	}
+
+	/**
+	 * @return histogram of the time it takes to send a hit
+	 */
+	public int[] getDispatchLatency() {
+		return dispatchLatency;
+	}
+
+	/**
+	 * @return histogram of the time it takes to build the url of a hit
+	 */
+	public int[] getEncodeLatency() {
+		return encodeLatency;
+	}
+
+	/**
+	 * @return number of the buckets of the histograms
+	 */
+	public static int getBucketCount() {
+		return StatsCollector.BUCKETS;
+	}
+
+	/**
+	 * Returns the exclusive upper bound of a histogram bucket.
+	 *
+	 * @param bucket bucket index
+	 * @return upper bound in milliseconds, {@link Integer#MAX_VALUE} for the
+	 *         last bucket
+	 */
+	public static int getBucketBound(int bucket) {
+		if (bucket >= StatsCollector.BUCKET_BOUNDS.length) {
+			return Integer.MAX_VALUE;
+		}
+		return StatsCollector.BUCKET_BOUNDS[bucket];
+	}
+
+	public String toString() {
+		return "enqueued=" + enqueued + " sent=" + sent + " failed=" + failed
+				+ " evicted=" + evicted + " dropped=" + dropped + " stored="
+				+ storedHits + " queued=" + queuedHits + " deadLetters="
+				+ deadLetters;
+	}
+}
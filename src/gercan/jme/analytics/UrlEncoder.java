@@ -0,0 +1,106 @@
+/*************************************************************************
+* Copyright 2010 Gorkem Ercan
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*
+**************************************************************************/
+package gercan.jme.analytics;
+
+/**
+ * application/x-www-form-urlencoded encoder. Characters outside the safe set
+ * are converted to UTF-8 regardless of the platform encoding and written as
+ * %XX escapes. Encodes into a caller supplied buffer and does not allocate
+ * per character.
+ *
+ * @author Gorkem Ercan
+ *
+ */
+final /*package*/ class UrlEncoder {
+	private static final char[] HEX = { '0', '1', '2', '3', '4', '5', '6',
+			'7', '8', '9', 'A', 'B', 'C', 'D', 'E', 'F' };
+	/*
+	 * ASCII characters that are written as is
+	 */
+	private static final boolean[] SAFE = new boolean[128];
+	static {
+		for (char ch = 'a'; ch <= 'z'; ch++) {
+			SAFE[ch] = true;
+		}
+		for (char ch = 'A'; ch <= 'Z'; ch++) {
+			SAFE[ch] = true;
+		}
+		for (char ch = '0'; ch <= '9'; ch++) {
+			SAFE[ch] = true;
+		}
+		SAFE['.'] = true;
+		SAFE['-'] = true;
+		SAFE['*'] = true;
+		SAFE['_'] = true;
+	}
+
+	private UrlEncoder() {
+	}
+
+	static String encode(String s) {
+		StringBuffer buf = new StringBuffer(s.length() + 16);
+		encode(s, buf);
+		return buf.toString();
+	}
+
+	/**
+	 * Appends the encoded form of the string to the buffer.
+	 *
+	 * @param s string to encode
+	 * @param buf buffer to append to
+	 */
+	static void encode(String s, StringBuffer buf) {
+		int length = s.length();
+		for (int i = 0; i < length; i++) {
+			char ch = s.charAt(i);
+			if (ch < 128) {
+				if (SAFE[ch]) {
+					buf.append(ch);
+				} else if (ch == ' ') {
+					buf.append('+');
+				} else {
+					appendEscaped(ch, buf);
+				}
+			} else if (ch < 0x800) {
+				appendEscaped(0xc0 | (ch >> 6), buf);
+				appendEscaped(0x80 | (ch & 0x3f), buf);
+			} else if (ch >= 0xd800 && ch <= 0xdbff && i + 1 < length
+					&& s.charAt(i + 1) >= 0xdc00 && s.charAt(i + 1) <= 0xdfff) {
+				int cp = 0x10000 + ((ch - 0xd800) << 10)
+						+ (s.charAt(++i) - 0xdc00);
+				appendEscaped(0xf0 | (cp >> 18), buf);
+				appendEscaped(0x80 | ((cp >> 12) & 0x3f), buf);
+				appendEscaped(0x80 | ((cp >> 6) & 0x3f), buf);
+				appendEscaped(0x80 | (cp & 0x3f), buf);
+			} else {
+				if (ch >= 0xd800 && ch <= 0xdfff) {
+					// unpaired surrogate, replaced with U+FFFD
+					ch = 0xfffd;
+				}
+				appendEscaped(0xe0 | (ch >> 12), buf);
+				appendEscaped(0x80 | ((ch >> 6) & 0x3f), buf);
+				appendEscaped(0x80 | (ch & 0x3f), buf);
+			}
+		}
+	}
+
+	private static void appendEscaped(int b, StringBuffer buf) {
+		buf.append('%');
+		buf.append(HEX[(b >> 4) & 0xf]);
+		buf.append(HEX[b & 0xf]);
+	}
+}
@@ -0,0 +1,51 @@
+/*************************************************************************
+* Copyright 2010 Gorkem Ercan
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*
+**************************************************************************/
+package gercan.jme.analytics;
+
+/**
+ * The parts of the tracking urls that are the same for all hits of a
+ * visit. Built once by the initialization thread before the tracker is
+ * marked as initialized, and never changed, so the threads that saw the
+ * initialization finish read it without locking.
+ *
+ * @author Gorkem Ercan
+ *
+ */
+final /*package*/ class Visit {
+	/*
+	 * session part of the tracking url
+	 */
+	final String rootPath;
+	/*
+	 * url encoded __utma cookie of this visit, null if the session data was
+	 * not loaded
+	 */
+	final String cookie;
+	final SessionData session;
+	/*
+	 * users whose bucket is below the sample rate are tracked
+	 */
+	final int sampleBucket;
+
+	Visit(String rootPath, String cookie, SessionData session,
+			int sampleBucket) {
+		this.rootPath = rootPath;
+		this.cookie = cookie;
+		this.session = session;
+		this.sampleBucket = sampleBucket;
+	}
+}
@@ -16,7 +16,9 @@
 **************************************************************************/
 package gercan.jme.analytics.test;
 
+import gercan.jme.analytics.DispatchResult;
 import gercan.jme.analytics.GoogleAnalytics;
+import gercan.jme.analytics.TrackerStats;
 import jmunit.framework.cldc11.TestCase;
 
 public class PageViewTrackEventTest extends TestCase {
@@ -30,7 +32,7 @@ public class PageViewTrackEventTest extends TestCase {
 	 * @param name this testcase's name.
 	 */
 	public PageViewTrackEventTest() {
-		super(3, "PageViewTest");	
+		super(6, "PageViewTest");	
 	}
 	
 	public void doStart() {
@@ -70,6 +72,67 @@ public class PageViewTrackEventTest extends TestCase {
 	
 	}
 
+	public void testDispatchBatch(){
+		GoogleAnalytics.getInstance(null, null).setImmediate(false);
+		GoogleAnalytics.getInstance(null,null).dispatchAll(60000L);
+		
+		GoogleAnalytics.getInstance(null,null).trackPageView("/batchview"); 
+		GoogleAnalytics.getInstance(null,null).trackEvent("batch", "action", "label",-1);
+		GoogleAnalytics.getInstance(null,null).trackEvent("batch", "action2", null,5);
+		
+		DispatchResult result = GoogleAnalytics.getInstance(null,null).dispatch(2);
+		assertEquals("Not dispatched expected amount of events", 2, result.getSent());
+		assertEquals("Unexpected failed events", 0, result.getFailed());
+		assertEquals("Unexpected remaining events", 1, result.getRemaining());
+		result = GoogleAnalytics.getInstance(null,null).dispatchAll(60000L);
+		assertEquals("Not dispatched expected amount of events", 1, result.getSent());
+		assertEquals("Unexpected remaining events", 0, result.getRemaining());
+	}
+
+	public void testStorageQuota(){
+		GoogleAnalytics ga = GoogleAnalytics.getInstance(null, null);
+		ga.setImmediate(false);
+		ga.dispatchAll(60000L);
+		int evicted = ga.getEvictedHits();
+		
+		ga.setEvictionPolicy(GoogleAnalytics.EVICT_DROP_NEWEST);
+		ga.setStorageQuota(2, 0);
+		ga.trackPageView("/quota1");
+		ga.trackPageView("/quota2");
+		ga.trackPageView("/quota3");
+		assertEquals("Newest hit should be evicted", evicted + 1, ga.getEvictedHits());
+		
+		ga.setStorageQuota(0, 0);
+		ga.setEvictionPolicy(GoogleAnalytics.EVICT_DROP_OLDEST);
+		DispatchResult result = ga.dispatchAll(60000L);
+		assertEquals("Not dispatched expected amount of events", 2, result.getSent());
+	}
+
+	public void testStats(){
+		GoogleAnalytics ga = GoogleAnalytics.getInstance(null, null);
+		ga.setImmediate(false);
+		ga.dispatchAll(60000L);
+		TrackerStats before = ga.getStats();
+		
+		ga.trackPageView("/statsview");
+		ga.trackEvent("stats", "action", null, -1);
+		TrackerStats stats = ga.getStats();
+		assertEquals("Unexpected enqueued hits", before.getEnqueued() + 2, stats.getEnqueued());
+		assertEquals("Unexpected stored hits", 2, stats.getStoredHits());
+		
+		ga.dispatchAll(60000L);
+		stats = ga.getStats();
+		assertEquals("Unexpected sent hits", before.getSent() + 2, stats.getSent());
+		assertEquals("Unexpected stored hits", 0, stats.getStoredHits());
+		int[] histogram = stats.getDispatchLatency();
+		assertEquals("Unexpected bucket count", TrackerStats.getBucketCount(), histogram.length);
+		int total = 0;
+		for (int i = 0; i < histogram.length; i++) {
+			total += histogram[i];
+		}
+		assertEquals("Unexpected dispatch samples", stats.getSent() + stats.getFailed(), total);
+	}
+
 	/**
 	 * This method stores all the test methods invocation. The developer must
 	 * implement this method with a switch-case. The cases must start from 0 and
@@ -91,6 +154,15 @@ public class PageViewTrackEventTest extends TestCase {
 		case 2:
 			testReadAndDispatch();
 			break;
+		case 3:
+			testDispatchBatch();
+			break;
+		case 4:
+			testStorageQuota();
+			break;
+		case 5:
+			testStats();
+			break;
 		}
 	}
 